@@ -0,0 +1,183 @@
+/* Copyright (c) 2017 Frederick Alvarez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+/*
+   DESCRIPTION
+    Creates the source trees and zip files used by the benchmarks
+
+   PRIVATE CLASSES
+    N/A
+
+   NOTES
+    The content comes from a seeded random so every run measures the same
+    bytes. Half of every 64 byte chunk is text and half is noise, which
+    deflates to about 60% like typical build outputs. Trees and archives
+    are kept under bench.dir (the temp dir by default) and reused
+
+   MODIFIED  (MM/DD/YY)
+    donhk     10/18/26 - Creation
+ */
+package com.donhk.bench;
+
+import com.donhk.Zip.ZipCompressor;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * @author donhk
+ */
+public class ArchiveGenerator {
+
+    private static final long SEED = 0x5EEDL;
+    private static final byte[] TEXT = ("public static void main(String[] args) throws IOException { return; } "
+            + "<dependency><groupId>com.donhk</groupId></dependency> ").getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Shapes of archive the benchmarks run on
+     */
+    public enum Layout {
+        //20000 files up to 4 KB spread in 100 directories
+        TINY_FILES,
+        //4 files of 40 MB, above the parallel deflate threshold of the compressor
+        HUGE_FILES,
+        //binary tree of directories 11 levels deep with 2 files per directory
+        DEEP_TREE,
+        //2000 files of 8 KB and 4 symlinks to each of them
+        SYMLINKS
+    }
+
+    private final File baseDir;
+
+    public ArchiveGenerator() {
+        this(new File(System.getProperty("bench.dir", new File(System.getProperty("java.io.tmpdir"), "zipper-bench").getPath())));
+    }
+
+    public ArchiveGenerator(File baseDir) {
+        this.baseDir = baseDir;
+    }
+
+    /**
+     * @param layout shape of the tree
+     * @return source tree of the layout, created on the first call
+     * @throws IOException if the tree could not be written
+     */
+    public File tree(Layout layout) throws IOException {
+        File root = new File(baseDir, "tree-" + layout.name().toLowerCase());
+        File done = new File(baseDir, "tree-" + layout.name().toLowerCase() + ".done");
+        if (done.isFile()) {
+            return root;
+        }
+        FileUtils.deleteDirectory(root);
+        Random random = new Random(SEED);
+        switch (layout) {
+            case TINY_FILES:
+                for (int i = 0; i < 20000; i++) {
+                    write(new File(root, "dir" + (i % 100) + "/file" + i + ".txt"), random.nextInt(4096), random);
+                }
+                break;
+            case HUGE_FILES:
+                for (int i = 0; i < 4; i++) {
+                    write(new File(root, "huge" + i + ".bin"), 40L * 1024 * 1024, random);
+                }
+                break;
+            case DEEP_TREE:
+                deepTree(root, 11, random);
+                break;
+            case SYMLINKS:
+                for (int i = 0; i < 2000; i++) {
+                    write(new File(root, "files/file" + i + ".txt"), 8192, random);
+                    for (int j = 0; j < 4; j++) {
+                        File link = new File(root, "links" + j + "/link" + i);
+                        link.getParentFile().mkdirs();
+                        Files.createSymbolicLink(link.toPath(), new File("../files/file" + i + ".txt").toPath());
+                    }
+                }
+                break;
+        }
+        done.createNewFile();
+        return root;
+    }
+
+    /**
+     * @param layout shape of the tree
+     * @param level  deflate level, 0 stores the entries
+     * @return zip file of the layout, created on the first call
+     * @throws IOException          if the zip file could not be written
+     * @throws InterruptedException if the compression was interrupted
+     */
+    public File archive(Layout layout, int level) throws IOException, InterruptedException {
+        File source = tree(layout);
+        File zip = new File(baseDir, layout.name().toLowerCase() + "-" + level + ".zip");
+        if (zip.isFile()) {
+            return zip;
+        }
+        File tmp = new File(baseDir, zip.getName() + ".tmp");
+        tmp.delete();
+        ZipCompressor compressor = new ZipCompressor(tmp.getPath(), source.getPath(), Runtime.getRuntime().availableProcessors(), level);
+        if (!compressor.prepare() || !compressor.compress()) {
+            throw new IOException("Can't create " + zip);
+        }
+        Files.move(tmp.toPath(), zip.toPath());
+        return zip;
+    }
+
+    private static void deepTree(File dir, int depth, Random random) throws IOException {
+        write(new File(dir, "a.txt"), random.nextInt(16384), random);
+        write(new File(dir, "b.txt"), random.nextInt(16384), random);
+        if (depth > 1) {
+            deepTree(new File(dir, "l"), depth - 1, random);
+            deepTree(new File(dir, "r"), depth - 1, random);
+        }
+    }
+
+    private static void write(File file, long size, Random random) throws IOException {
+        file.getParentFile().mkdirs();
+        byte[] chunk = new byte[64 * 1024];
+        try (OutputStream os = new FileOutputStream(file)) {
+            long remaining = size;
+            while (remaining > 0) {
+                fill(chunk, random);
+                int length = (int) Math.min(chunk.length, remaining);
+                os.write(chunk, 0, length);
+                remaining -= length;
+            }
+        }
+    }
+
+    private static void fill(byte[] chunk, Random random) {
+        byte[] noise = new byte[32];
+        for (int i = 0; i < chunk.length; i += 64) {
+            int offset = random.nextInt(TEXT.length - 32);
+            System.arraycopy(TEXT, offset, chunk, i, 32);
+            random.nextBytes(noise);
+            System.arraycopy(noise, 0, chunk, i + 32, 32);
+        }
+    }
+}
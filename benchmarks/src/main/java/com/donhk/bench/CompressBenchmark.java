@@ -0,0 +1,59 @@
+package com.donhk.bench;
+
+import com.donhk.Zip.ZipCompressor;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creation of a zip file out of every layout
+ *
+ * @author donhk
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CompressBenchmark {
+
+    @Param({"TINY_FILES", "HUGE_FILES", "DEEP_TREE", "SYMLINKS"})
+    public ArchiveGenerator.Layout layout;
+
+    @Param({"0", "1", "6"})
+    public int level;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private File source;
+    private File zipFile;
+
+    @Setup(Level.Trial)
+    public void createTree() throws IOException {
+        source = new ArchiveGenerator().tree(layout);
+        zipFile = File.createTempFile("zipper-compress", ".zip");
+    }
+
+    @Setup(Level.Iteration)
+    public void deleteZip() {
+        zipFile.delete();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteLastZip() {
+        zipFile.delete();
+    }
+
+    @Benchmark
+    public long compress() throws IOException, InterruptedException {
+        ZipCompressor compressor = new ZipCompressor(zipFile.getPath(), source.getPath(), threads, level);
+        if (!compressor.prepare() || !compressor.compress()) {
+            throw new IOException("Can't create " + zipFile);
+        }
+        return zipFile.length();
+    }
+}
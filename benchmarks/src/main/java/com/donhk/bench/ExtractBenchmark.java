@@ -0,0 +1,66 @@
+package com.donhk.bench;
+
+import com.donhk.Zip.Zip;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full extraction of every layout, each iteration writes into an empty directory
+ *
+ * @author donhk
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ExtractBenchmark {
+
+    @Param({"TINY_FILES", "HUGE_FILES", "DEEP_TREE", "SYMLINKS"})
+    public ArchiveGenerator.Layout layout;
+
+    //0 stores the entries, 6 deflates them
+    @Param({"0", "6"})
+    public int level;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    @Param({"16384", "131072", "1048576"})
+    public int bufferSize;
+
+    private File zipFile;
+    private File target;
+
+    @Setup(Level.Trial)
+    public void createArchive() throws IOException, InterruptedException {
+        zipFile = new ArchiveGenerator().archive(layout, level);
+        target = Files.createTempDirectory("zipper-extract").toFile();
+    }
+
+    @Setup(Level.Iteration)
+    public void cleanTarget() throws IOException {
+        FileUtils.cleanDirectory(target);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteTarget() throws IOException {
+        FileUtils.deleteDirectory(target);
+    }
+
+    @Benchmark
+    public long unzipFile() throws IOException, InterruptedException {
+        Zip zip = new Zip(zipFile.getPath(), target.getPath(), threads);
+        zip.setBufferSize(bufferSize);
+        if (!zip.prepare() || !zip.unzipFile()) {
+            throw new IOException("Can't extract " + zipFile);
+        }
+        return zip.getTotalFiles();
+    }
+}
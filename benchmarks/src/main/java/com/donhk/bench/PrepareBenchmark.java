@@ -0,0 +1,53 @@
+package com.donhk.bench;
+
+import com.donhk.Zip.Zip;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to read the central directory, in mapped mode prepare returns while the directory
+ * is still being scanned so the scan is awaited too
+ *
+ * @author donhk
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PrepareBenchmark {
+
+    @Param({"TINY_FILES", "HUGE_FILES", "DEEP_TREE", "SYMLINKS"})
+    public ArchiveGenerator.Layout layout;
+
+    @Param({"false", "true"})
+    public boolean mapped;
+
+    private File zipFile;
+    private String target;
+
+    @Setup(Level.Trial)
+    public void createArchive() throws IOException, InterruptedException {
+        zipFile = new ArchiveGenerator().archive(layout, 6);
+        //nothing is written, prepare only creates the directory
+        target = new File(System.getProperty("java.io.tmpdir"), "zipper-prepare").getPath();
+    }
+
+    @Benchmark
+    public long prepare() throws IOException, InterruptedException {
+        Zip zip = new Zip(zipFile.getPath(), target, 1);
+        zip.setMapped(mapped);
+        try {
+            if (!zip.prepare()) {
+                throw new IOException("Can't read " + zipFile);
+            }
+            return zip.awaitScan();
+        } finally {
+            zip.close();
+        }
+    }
+}
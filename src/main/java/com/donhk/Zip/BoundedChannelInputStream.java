@@ -0,0 +1,62 @@
+package com.donhk.Zip;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a region of a file channel using positional reads only, so several
+ * streams can share the same channel from different threads
+ *
+ * @author donhk
+ */
+class BoundedChannelInputStream extends InputStream {
+
+    private final FileChannel channel;
+    private long position;
+    private long remaining;
+
+    BoundedChannelInputStream(FileChannel channel, long start, long length) {
+        this.channel = channel;
+        this.position = start;
+        this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (remaining <= 0) {
+            return -1;
+        }
+        if (len == 0) {
+            return 0;
+        }
+        int toRead = (int) Math.min(len, remaining);
+        int read = channel.read(ByteBuffer.wrap(b, off, toRead), position);
+        if (read < 0) {
+            return -1;
+        }
+        position += read;
+        remaining -= read;
+        return read;
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = Math.min(Math.max(n, 0), remaining);
+        position += skipped;
+        remaining -= skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(remaining, Integer.MAX_VALUE);
+    }
+}
@@ -0,0 +1,233 @@
+/* Copyright (c) 2017 Frederick Alvarez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+/*
+   DESCRIPTION
+    Feeds items to a fixed set of workers through a bounded queue
+
+   PRIVATE CLASSES
+    Worker
+
+   NOTES
+    The calling thread walks the items and blocks once the queue is full,
+    so no matter how many items there are only the queue and the items in
+    flight are referenced. The items are walked twice: the big ones are
+    collected, sorted by size descending and queued first, then the small
+    ones are queued in their natural order to fill the gaps at the end.
+    Only the big items are ever held in a list and each of them is worth
+    at least a MB of work, so that list stays short. Replaces the size
+    aware fork/join scheduler, which needed one job object per item.
+    With a work budget every item takes its size from it while it is
+    handled, the workers of all the dispatchers sharing it compete for
+    its slots. A throwable that escapes the handler stops the workers and
+    is rethrown by dispatch, so a run never looks complete with items
+    that were never handled
+
+   MODIFIED  (MM/DD/YY)
+    donhk     10/18/26 - Creation
+    donhk     10/18/26 - Shared work budget
+    donhk     10/18/26 - Failures of the handler rethrown by dispatch
+ */
+package com.donhk.Zip;
+
+import com.donhk.engine.WorkBudget;
+import com.google.common.base.Throwables;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * @author donhk
+ */
+class BoundedDispatcher<T> {
+
+    //items bigger than this are started before any small one
+    private static final long BIG_ITEM = 1024 * 1024;
+    //slots of the queue per worker
+    private static final int QUEUE_PER_WORKER = 64;
+    //tells a worker there is nothing else to do
+    private static final Object END = new Object();
+    //how often a blocked dispatch looks for a failed worker
+    private static final long POLL_MILLIS = 100;
+
+    private final int threads;
+    private final ToLongFunction<T> sizeOf;
+    private final Consumer<T> handler;
+    private final BlockingQueue<Object> queue;
+    private final List<Worker> workers = new ArrayList<>();
+    //first throwable that escaped the handler
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private WorkBudget budget = null;
+    private long wallNanos = 0;
+
+    /**
+     * @param threads number of workers
+     * @param sizeOf  function that tells how many bytes an item will process
+     * @param handler called on a worker for every item, it must handle its own errors, anything
+     *                it throws aborts the dispatch
+     */
+    BoundedDispatcher(int threads, ToLongFunction<T> sizeOf, Consumer<T> handler) {
+        this.threads = threads;
+        this.sizeOf = sizeOf;
+        this.handler = handler;
+        this.queue = new ArrayBlockingQueue<>(threads * QUEUE_PER_WORKER);
+    }
+
+    /**
+     * @param budget limit shared with other dispatchers, null for none
+     */
+    void setBudget(WorkBudget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Hands every item to the workers and waits until all of them are processed
+     *
+     * @param items items to process, walked twice
+     * @throws InterruptedException if the operation was interrupted, the workers are stopped
+     * @throws RuntimeException     what the handler threw, the rest of the items are not handled
+     * @throws Error                what the handler threw, the rest of the items are not handled
+     */
+    void dispatch(Iterable<T> items) throws InterruptedException {
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            Worker worker = new Worker("dispatcher-worker-" + (i + 1));
+            workers.add(worker);
+            worker.start();
+        }
+        boolean finished = false;
+        try {
+            List<T> big = new ArrayList<>();
+            for (T item : items) {
+                if (sizeOf.applyAsLong(item) >= BIG_ITEM) {
+                    big.add(item);
+                }
+            }
+            big.sort(Comparator.comparingLong(sizeOf).reversed());
+            for (T item : big) {
+                put(item);
+            }
+            big = null;
+            for (T item : items) {
+                if (sizeOf.applyAsLong(item) < BIG_ITEM) {
+                    put(item);
+                }
+            }
+            for (int i = 0; i < threads; i++) {
+                put(END);
+            }
+            for (Worker worker : workers) {
+                worker.join();
+            }
+            rethrowFailure();
+            finished = true;
+        } finally {
+            if (!finished) {
+                for (Worker worker : workers) {
+                    worker.interrupt();
+                }
+            }
+        }
+        wallNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Queues an item, the workers might be gone if one of them failed
+     */
+    private void put(Object item) throws InterruptedException {
+        while (!queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            rethrowFailure();
+        }
+    }
+
+    private void rethrowFailure() {
+        Throwable e = failure.get();
+        if (e != null) {
+            //the handler is a Consumer, only unchecked throwables get here
+            Throwables.throwIfUnchecked(e);
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return one line per worker with its busy time against the wall time of the run
+     */
+    List<String> getUtilizationReport() {
+        List<String> report = new ArrayList<>();
+        for (Worker worker : workers) {
+            double busy = wallNanos == 0 ? 0 : 100.0 * worker.busyNanos / wallNanos;
+            report.add(String.format("%s busy %.1f%% (%d jobs, %d MB)",
+                    worker.getName(), busy, worker.jobs, worker.bytes / (1024 * 1024)));
+        }
+        return report;
+    }
+
+    private class Worker extends Thread {
+        private volatile long busyNanos = 0;
+        private volatile long bytes = 0;
+        private volatile long jobs = 0;
+
+        Worker(String name) {
+            super(name);
+            setDaemon(true);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void run() {
+            try {
+                while (true) {
+                    Object next = queue.take();
+                    if (next == END || failure.get() != null) {
+                        return;
+                    }
+                    T item = (T) next;
+                    long granted = budget == null ? 0 : budget.acquire(sizeOf.applyAsLong(item));
+                    long a = System.nanoTime();
+                    try {
+                        handler.accept(item);
+                    } catch (Throwable e) {
+                        //the dispatch rethrows it, the other workers stop at their next item
+                        failure.compareAndSet(null, e);
+                        return;
+                    } finally {
+                        if (budget != null) {
+                            budget.release(granted);
+                        }
+                    }
+                    //a worker only updates its own stats
+                    busyNanos += System.nanoTime() - a;
+                    bytes += sizeOf.applyAsLong(item);
+                    jobs++;
+                }
+            } catch (InterruptedException e) {
+                //the dispatch was aborted
+            }
+        }
+    }
+}
@@ -0,0 +1,420 @@
+/* Copyright (c) 2017 Frederick Alvarez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+/*
+   DESCRIPTION
+    Memory mapped reader of the central directory of a zip file
+
+   PRIVATE CLASSES
+    EntryInflaterInputStream
+
+   NOTES
+    The directory is mapped once and scanned for record boundaries only,
+    the index keeps the position of every record in an int array and the
+    records are decoded into CentralEntry objects when somebody asks for
+    them. The scan can run on its own thread while the entries already
+    found are handed out to the workers. On a split zip file the offsets
+    of the records are relative to their disk and are turned into
+    positions of the channel joining the segments, a directory that
+    crosses segments is read into the heap instead of mapped.
+    https://pkware.cachefly.net/webdocs/casestudies/APPNOTE.TXT
+
+   MODIFIED  (MM/DD/YY)
+    donhk     10/18/26 - Creation
+    donhk     10/18/26 - Split zip files, disk relative offsets
+    donhk     10/18/26 - Names decoded by EntryNames, EFS flag and Unicode path field
+ */
+package com.donhk.Zip;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * @author donhk
+ */
+public class CentralDirectory implements Closeable {
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+    private static final int EOCD_LENGTH = 22;
+    private static final int ZIP64_LOCATOR_LENGTH = 20;
+    private static final int CENTRAL_LENGTH = 46;
+    private static final int LOCAL_LENGTH = 30;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final long MAGIC_32 = 0xFFFFFFFFL;
+    private static final int MAGIC_16 = 0xFFFF;
+    //waiting workers are woken up every time this amount of records is found
+    private static final int NOTIFY_EVERY = 1024;
+    private static final int BUFFER = 1024 * 128;
+
+    private final File zipFile;
+    private final FileChannel channel;
+    private final ByteBuffer directory;
+    private final long expectedEntries;
+    private final Object lock = new Object();
+    private volatile int[] positions;
+    private volatile int scanned = 0;
+    private volatile boolean done = false;
+    private volatile IOException scanError = null;
+
+    /**
+     * Locates and maps the central directory, the records are not read until {@link #scan()} is called
+     *
+     * @param zipFile zip file to read
+     * @throws IOException if the file is not a zip file or the directory can't be mapped
+     */
+    public CentralDirectory(File zipFile) throws IOException {
+        this(zipFile, FileChannel.open(zipFile.toPath(), StandardOpenOption.READ));
+    }
+
+    /**
+     * @param zipFile zip file to read, only used in messages
+     * @param channel content of the zip file, it is closed along with the directory
+     * @throws IOException if the file is not a zip file or the directory can't be read
+     */
+    CentralDirectory(File zipFile, FileChannel channel) throws IOException {
+        this.zipFile = zipFile;
+        this.channel = channel;
+        try {
+            long[] location = locate();
+            this.expectedEntries = location[0];
+            if (location[1] > Integer.MAX_VALUE) {
+                throw new IOException("Central directory bigger than 2 GB in " + zipFile.getName());
+            }
+            ByteBuffer buffer;
+            if (channel instanceof SplitChannel && ((SplitChannel) channel).crossesSegments(location[2], location[1])) {
+                buffer = ByteBuffer.allocate((int) location[1]);
+                readFully(buffer, location[2]);
+                buffer.clear();
+            } else {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, location[2], location[1]);
+            }
+            //the byte order must be set before the buffer is shared with other threads
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            this.directory = buffer;
+            this.positions = new int[(int) Math.max(16, Math.min(expectedEntries, 1 << 20))];
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Finds the end of central directory record, and its zip64 version if the archive has one
+     *
+     * @return number of entries, size and offset of the central directory
+     * @throws IOException if the record can't be found
+     */
+    private long[] locate() throws IOException {
+        long fileSize = channel.size();
+        //the record is at the end of the file followed by a comment of up to 64 KB
+        int tailLength = (int) Math.min(fileSize, EOCD_LENGTH + MAGIC_16);
+        ByteBuffer tail = ByteBuffer.allocate(tailLength).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(tail, fileSize - tailLength);
+        int eocd = -1;
+        for (int i = tailLength - EOCD_LENGTH; i >= 0; i--) {
+            if (tail.getInt(i) == EOCD_SIGNATURE) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0) {
+            throw new IOException("End of central directory not found in " + zipFile.getName());
+        }
+        long disk = tail.getShort(eocd + 4) & 0xFFFF;
+        long directoryDisk = tail.getShort(eocd + 6) & 0xFFFF;
+        long entries = tail.getShort(eocd + 10) & 0xFFFF;
+        long size = tail.getInt(eocd + 12) & MAGIC_32;
+        long offset = tail.getInt(eocd + 16) & MAGIC_32;
+
+        long locatorPosition = fileSize - tailLength + eocd - ZIP64_LOCATOR_LENGTH;
+        if (locatorPosition >= 0) {
+            ByteBuffer locator = ByteBuffer.allocate(ZIP64_LOCATOR_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(locator, locatorPosition);
+            if (locator.getInt(0) == ZIP64_LOCATOR_SIGNATURE) {
+                ByteBuffer zip64 = ByteBuffer.allocate(56).order(ByteOrder.LITTLE_ENDIAN);
+                readFully(zip64, logical(locator.getInt(4) & MAGIC_32, locator.getLong(8)));
+                if (zip64.getInt(0) != ZIP64_EOCD_SIGNATURE) {
+                    throw new IOException("Corrupt zip64 end of central directory in " + zipFile.getName());
+                }
+                disk = zip64.getInt(16) & MAGIC_32;
+                directoryDisk = zip64.getInt(20) & MAGIC_32;
+                entries = zip64.getLong(32);
+                size = zip64.getLong(40);
+                offset = zip64.getLong(48);
+            }
+        }
+        //the record is on the last disk
+        if (channel instanceof SplitChannel && disk + 1 != ((SplitChannel) channel).getDisks()) {
+            throw new IOException(zipFile.getName() + " has " + (disk + 1) + " segments, "
+                    + ((SplitChannel) channel).getDisks() + " were found");
+        }
+        return new long[]{entries, size, logical(directoryDisk, offset)};
+    }
+
+    /**
+     * Walks the mapped directory recording where every record starts, the workers
+     * blocked on {@link #await(int)} are released as records are found
+     */
+    public void scan() {
+        try {
+            int position = 0;
+            int limit = directory.limit();
+            int count = 0;
+            while (position + CENTRAL_LENGTH <= limit && directory.getInt(position) == CENTRAL_SIGNATURE) {
+                int[] current = positions;
+                if (count == current.length) {
+                    //readers only look at indexes below scanned, the copy keeps all of them
+                    current = Arrays.copyOf(current, current.length * 2);
+                    positions = current;
+                }
+                current[count] = position;
+                scanned = ++count;
+                position += CENTRAL_LENGTH + u16(position + 28) + u16(position + 30) + u16(position + 32);
+                if (count % NOTIFY_EVERY == 0) {
+                    synchronized (lock) {
+                        lock.notifyAll();
+                    }
+                }
+            }
+            if (count < expectedEntries && expectedEntries != MAGIC_16) {
+                scanError = new IOException("Corrupt central directory in " + zipFile.getName()
+                        + ", " + count + " of " + expectedEntries + " entries found");
+            }
+        } finally {
+            done = true;
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Starts the scan on a background thread
+     */
+    public void scanAsync() {
+        Thread scanner = new Thread(this::scan, "central-directory-scanner");
+        scanner.setDaemon(true);
+        scanner.start();
+    }
+
+    /**
+     * Waits until the record has been found by the scan and decodes it
+     *
+     * @param index position of the record in the directory
+     * @return the entry or null if the directory has less records
+     * @throws IOException          if the scan found a corrupt directory
+     * @throws InterruptedException if the wait was interrupted
+     */
+    public CentralEntry await(int index) throws IOException, InterruptedException {
+        if (index >= scanned) {
+            synchronized (lock) {
+                while (index >= scanned && !done) {
+                    lock.wait(10);
+                }
+            }
+        }
+        if (index >= scanned) {
+            if (scanError != null) {
+                throw scanError;
+            }
+            return null;
+        }
+        return decode(index, positions[index]);
+    }
+
+    /**
+     * @return number of entries declared by the end of central directory record
+     */
+    public long getExpectedEntries() {
+        return expectedEntries;
+    }
+
+    /**
+     * @return number of records found so far, it is final once the scan is done
+     */
+    public int getScanned() {
+        return scanned;
+    }
+
+    public FileChannel getChannel() {
+        return channel;
+    }
+
+    private CentralEntry decode(int index, int position) throws IOException {
+        int nameLength = u16(position + 28);
+        int extraLength = u16(position + 30);
+        long compressedSize = u32(position + 20);
+        long size = u32(position + 24);
+        int diskNumber = u16(position + 34);
+        long localHeaderOffset = u32(position + 42);
+
+        int flags = u16(position + 8);
+        byte[] rawName = new byte[nameLength];
+        ByteBuffer view = directory.duplicate();
+        view.position(position + CENTRAL_LENGTH);
+        view.get(rawName);
+        //the extra field is only needed to decode names that are not UTF-8
+        byte[] rawExtra = new byte[EntryNames.isUtf8(flags) ? 0 : extraLength];
+        view.get(rawExtra);
+
+        if (size == MAGIC_32 || compressedSize == MAGIC_32 || localHeaderOffset == MAGIC_32 || diskNumber == MAGIC_16) {
+            //the real values are in the zip64 extra field, only the ones flagged are present and in this order
+            int extra = position + CENTRAL_LENGTH + nameLength;
+            int extraEnd = extra + extraLength;
+            while (extra + 4 <= extraEnd) {
+                int id = u16(extra);
+                int length = u16(extra + 2);
+                if (id == ZIP64_EXTRA_ID) {
+                    int field = extra + 4;
+                    if (size == MAGIC_32) {
+                        size = directory.getLong(field);
+                        field += 8;
+                    }
+                    if (compressedSize == MAGIC_32) {
+                        compressedSize = directory.getLong(field);
+                        field += 8;
+                    }
+                    if (localHeaderOffset == MAGIC_32) {
+                        localHeaderOffset = directory.getLong(field);
+                        field += 8;
+                    }
+                    if (diskNumber == MAGIC_16) {
+                        diskNumber = directory.getInt(field);
+                    }
+                    break;
+                }
+                extra += 4 + length;
+            }
+        }
+        return new CentralEntry(index, EntryNames.decode(rawName, flags, rawExtra),
+                u16(position + 4) >> 8, flags, u16(position + 10), u32(position + 12),
+                u32(position + 16), compressedSize, size, diskNumber, u32(position + 38), logical(diskNumber, localHeaderOffset));
+    }
+
+    /**
+     * Reads the local file header of the entry to know where its data starts
+     *
+     * @param entry entry to locate
+     * @return offset of the first byte of data of the entry
+     * @throws IOException if the local header is not valid
+     */
+    public long getDataOffset(CentralEntry entry) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(LOCAL_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(header, entry.getLocalHeaderOffset());
+        if (header.getInt(0) != LOCAL_SIGNATURE) {
+            throw new IOException("Invalid local header for entry " + entry.getName());
+        }
+        return entry.getLocalHeaderOffset() + LOCAL_LENGTH + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+    }
+
+    /**
+     * Opens the uncompressed content of the entry, only stored and deflated entries are supported
+     *
+     * @param entry entry to read
+     * @return stream with the content of the entry
+     * @throws IOException if the entry can't be read
+     */
+    public InputStream getInputStream(CentralEntry entry) throws IOException {
+        if (entry.isEncrypted()) {
+            throw new IOException("Encrypted entries are not supported " + entry.getName());
+        }
+        InputStream raw = new BoundedChannelInputStream(channel, getDataOffset(entry), entry.getCompressedSize());
+        switch (entry.getMethod()) {
+            case ZipEntry.STORED:
+                return raw;
+            case ZipEntry.DEFLATED:
+                return new EntryInflaterInputStream(raw);
+            default:
+                throw new IOException("Unsupported compression method " + entry.getMethod() + " for entry " + entry.getName());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * @return position on the channel of an offset relative to a disk, only split zip files have several disks
+     */
+    private long logical(long disk, long offset) throws IOException {
+        return channel instanceof SplitChannel ? ((SplitChannel) channel).toLogical(disk, offset) : offset;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Unexpected end of file " + zipFile.getName());
+            }
+        }
+    }
+
+    private int u16(int position) {
+        return directory.getShort(position) & 0xFFFF;
+    }
+
+    private long u32(int position) {
+        return directory.getInt(position) & MAGIC_32;
+    }
+
+    private static class EntryInflaterInputStream extends InflaterInputStream {
+        private boolean eof = false;
+
+        EntryInflaterInputStream(InputStream in) {
+            super(in, new Inflater(true), BUFFER);
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (eof) {
+                throw new EOFException("Unexpected end of deflated entry");
+            }
+            len = in.read(buf, 0, buf.length);
+            if (len == -1) {
+                //nowrap inflaters may need an extra dummy byte to finish, same as java.util.zip.ZipFile does
+                buf[0] = 0;
+                len = 1;
+                eof = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            inf.end();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/* Copyright (c) 2017 Frederick Alvarez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+/*
+   DESCRIPTION
+    Lightweight view of one record of the central directory
+
+   PRIVATE CLASSES
+    N/A
+
+   NOTES
+    Instances are created by CentralDirectory only when a worker asks
+    for them, nothing holds a reference to them afterwards
+
+   MODIFIED  (MM/DD/YY)
+    donhk     10/18/26 - Creation
+    donhk     10/18/26 - Raw fields for the entry index
+ */
+package com.donhk.Zip;
+
+import org.apache.commons.compress.archivers.zip.UnixStat;
+import org.apache.commons.compress.archivers.zip.ZipUtil;
+
+/**
+ * @author donhk
+ */
+public class CentralEntry {
+
+    //made by values of the "version made by" field
+    private static final int PLATFORM_UNIX = 3;
+
+    private final int index;
+    private final String name;
+    private final int platform;
+    private final int flags;
+    private final int method;
+    private final long dosTime;
+    private final long crc;
+    private final long compressedSize;
+    private final long size;
+    private final int diskNumber;
+    private final long externalAttributes;
+    private final long localHeaderOffset;
+
+    CentralEntry(int index, String name, int platform, int flags, int method, long dosTime, long crc,
+                 long compressedSize, long size, int diskNumber, long externalAttributes, long localHeaderOffset) {
+        this.index = index;
+        this.name = name;
+        this.platform = platform;
+        this.flags = flags;
+        this.method = method;
+        this.dosTime = dosTime;
+        this.crc = crc;
+        this.compressedSize = compressedSize;
+        this.size = size;
+        this.diskNumber = diskNumber;
+        this.externalAttributes = externalAttributes;
+        this.localHeaderOffset = localHeaderOffset;
+    }
+
+    /**
+     * @return position of the record inside the central directory
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMethod() {
+        return method;
+    }
+
+    public long getCrc() {
+        return crc;
+    }
+
+    public long getCompressedSize() {
+        return compressedSize;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public int getDiskNumber() {
+        return diskNumber;
+    }
+
+    public long getLocalHeaderOffset() {
+        return localHeaderOffset;
+    }
+
+    /**
+     * @return last modification time in java millis
+     */
+    public long getTime() {
+        return ZipUtil.dosToJavaTime(dosTime);
+    }
+
+    int getPlatform() {
+        return platform;
+    }
+
+    int getFlags() {
+        return flags;
+    }
+
+    long getDosTime() {
+        return dosTime;
+    }
+
+    long getExternalAttributes() {
+        return externalAttributes;
+    }
+
+    public boolean isEncrypted() {
+        return (flags & 1) != 0;
+    }
+
+    public boolean isDirectory() {
+        return name.endsWith("/");
+    }
+
+    /**
+     * @return unix mode of the entry, 0 if the archive was not created on unix
+     */
+    public int getUnixMode() {
+        return platform == PLATFORM_UNIX ? (int) ((externalAttributes >> 16) & 0xFFFF) : 0;
+    }
+
+    public boolean isUnixSymlink() {
+        return (getUnixMode() & UnixStat.FILE_TYPE_FLAG) == UnixStat.LINK_FLAG;
+    }
+}
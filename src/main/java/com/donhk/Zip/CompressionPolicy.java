@@ -0,0 +1,165 @@
+/* Copyright (c) 2017 Frederick Alvarez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+/*
+   DESCRIPTION
+    Decides per file whether it is worth deflating and at which level
+
+   PRIVATE CLASSES
+    N/A
+
+   NOTES
+    A file is stored when its extension belongs to a compressed format,
+    when its first bytes carry one of the signatures of the file type
+    table used to detect the archives that can be read, or when the
+    order 0 entropy of its first block says deflate would save less than
+    the minimum ratio. Entropy only sees the byte histogram, it under
+    estimates what deflate gets out of text, so it is only trusted to
+    spot data that is already compressed or random. Files close to the
+    minimum are deflated at the fastest level, the rest at the level
+    asked for
+
+   MODIFIED  (MM/DD/YY)
+    donhk     10/18/26 - Creation
+ */
+package com.donhk.Zip;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multimap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * @author donhk
+ */
+public class CompressionPolicy {
+
+    //bytes looked at to take the decision
+    private static final int SAMPLE = 64 * 1024;
+    //formats that are already compressed, most of them are zip or deflate inside
+    private static final Set<String> COMPRESSED_EXTENSIONS = ImmutableSet.of(
+            "zip", "jar", "war", "ear", "apk", "aar", "whl", "nupkg", "docx", "xlsx", "pptx", "odt", "ods",
+            "gz", "tgz", "bz2", "tbz2", "xz", "txz", "lz", "lzma", "lz4", "zst", "7z", "rar", "z",
+            "png", "jpg", "jpeg", "gif", "webp", "heic", "avif",
+            "mp3", "mp4", "m4a", "m4v", "aac", "ogg", "opus", "flac", "mkv", "webm", "avi", "mov",
+            "woff", "woff2", "pdf");
+
+    private final List<long[]> signatures = new ArrayList<>();
+    private final int level;
+    private final double minSavings;
+
+    /**
+     * @param fileTypes  file types and their signatures, types with signature 0 are ignored
+     * @param level      deflate level of the files that are worth it, -1 for the default level
+     * @param minSavings fraction of the size deflate has to save for a file to be deflated, e.g. 0.05
+     */
+    public CompressionPolicy(Multimap<String, Long> fileTypes, int level, double minSavings) {
+        for (Map.Entry<String, Long> type : fileTypes.entries()) {
+            long sign = type.getValue();
+            //the tar entry has no signature, every other type in the table is a compressed one
+            if (sign != 0) {
+                int length = (64 - Long.numberOfLeadingZeros(sign) + 7) / 8;
+                signatures.add(new long[]{sign, length});
+            }
+        }
+        this.level = level;
+        this.minSavings = minSavings;
+    }
+
+    /**
+     * Reads at most the first 64 KB of the file
+     *
+     * @param file regular file that will be added to the zip file
+     * @return deflate level for the file, 0 if it must be stored
+     * @throws IOException if the file can't be read
+     */
+    public int levelFor(Path file) throws IOException {
+        String name = file.getFileName().toString().toLowerCase();
+        int dot = name.lastIndexOf('.');
+        if (dot >= 0 && COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1))) {
+            return 0;
+        }
+        byte[] sample = new byte[SAMPLE];
+        int length = 0;
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while (length < sample.length && (read = in.read(sample, length, sample.length - length)) > 0) {
+                length += read;
+            }
+        }
+        if (length == 0) {
+            return level;
+        }
+        if (hasCompressedSignature(sample, length)) {
+            return 0;
+        }
+        double savings = 1 - entropy(sample, length) / 8;
+        if (savings < minSavings) {
+            return 0;
+        }
+        if (savings < 2 * minSavings) {
+            return Deflater.BEST_SPEED;
+        }
+        return level;
+    }
+
+    private boolean hasCompressedSignature(byte[] sample, int length) {
+        //first 8 bytes, big endian, same as the file type detection
+        long firstBytes = 0;
+        for (int i = 0; i < 8; i++) {
+            firstBytes = firstBytes << 8 | (i < length ? sample[i] & 0xFF : 0);
+        }
+        for (long[] signature : signatures) {
+            if (signature[1] <= length && firstBytes >>> (8 * (8 - signature[1])) == signature[0]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return order 0 entropy of the bytes in bits per byte, from 0 to 8
+     */
+    private static double entropy(byte[] sample, int length) {
+        int[] counts = new int[256];
+        for (int i = 0; i < length; i++) {
+            counts[sample[i] & 0xFF]++;
+        }
+        double entropy = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                double p = (double) count / length;
+                entropy -= p * Math.log(p);
+            }
+        }
+        return entropy / Math.log(2);
+    }
+}
@@ -0,0 +1,284 @@
+/* Copyright (c) 2017 Frederick Alvarez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+/*
+   DESCRIPTION
+    Directory tree of a zip file, created before the files are written
+
+   PRIVATE CLASSES
+    Dir
+
+   NOTES
+    The tree is planned from the entry names: directory entries and the
+    parents of every file. It is created one depth level at a time, every
+    level in parallel, so each directory is created exactly once and after
+    its parent. Modes and mtimes are applied once all the files exist,
+    deepest level first, so writing the content doesn't change them and a
+    read only directory doesn't block its children. When the entries are
+    not known up front directories are created on demand and remembered.
+    With a work budget every directory takes a slot while it is created
+    or updated
+
+   MODIFIED  (MM/DD/YY)
+    donhk     10/18/26 - Creation
+    donhk     10/18/26 - Shared metadata helper
+    donhk     10/18/26 - Work budget slots
+ */
+package com.donhk.Zip;
+
+import com.donhk.engine.WorkBudget;
+import com.donhk.io.FileMetadata;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/**
+ * @author donhk
+ */
+class DirectorySkeleton {
+
+    private final Path targetPath;
+    private final List<String> errors;
+    private final Map<String, Dir> dirs = new ConcurrentHashMap<>();
+    private WorkBudget budget = null;
+
+    /**
+     * @param targetPath directory where the tree is created
+     * @param errors     receives one message per directory that could not be created or updated
+     */
+    DirectorySkeleton(File targetPath, List<String> errors) {
+        this.targetPath = targetPath.toPath();
+        this.errors = errors;
+    }
+
+    /**
+     * @param budget limit shared with other extractions, the threads of {@link #create(int)} and
+     *               {@link #applyMetadata(int)} take a slot while they work, null for none
+     */
+    void setBudget(WorkBudget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Plans the parents of a file entry
+     *
+     * @param name entry name
+     */
+    void addFile(String name) {
+        int slash = name.lastIndexOf('/');
+        if (slash > 0) {
+            plan(name.substring(0, slash));
+        }
+    }
+
+    /**
+     * Plans a directory entry and its parents
+     *
+     * @param name     entry name, it might end with a slash
+     * @param unixMode mode of the directory, 0 if the entry has none
+     * @param time     last modification time of the directory, -1 if unknown
+     */
+    void addDirectory(String name, int unixMode, long time) {
+        String path = trim(name);
+        if (path.isEmpty()) {
+            return;
+        }
+        Dir dir = plan(path);
+        dir.unixMode = unixMode;
+        dir.time = time;
+    }
+
+    /**
+     * Creates all the planned directories, every depth level is created in parallel
+     *
+     * @param threads number of threads
+     * @throws InterruptedException if the operation was interrupted
+     */
+    void create(int threads) throws InterruptedException {
+        List<List<Dir>> levels = levels();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            for (List<Dir> level : levels) {
+                pool.submit(() -> level.parallelStream().forEach(dir -> inSlot(dir, this::mkdir))).get();
+            }
+        } catch (ExecutionException e) {
+            errors.add(targetPath + ": " + e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * For entries found while the extraction runs, creates the parents of the file unless
+     * that was already done
+     *
+     * @param name entry name of a file
+     */
+    void ensureParent(String name) {
+        int slash = name.lastIndexOf('/');
+        if (slash <= 0) {
+            return;
+        }
+        String parent = name.substring(0, slash);
+        Dir dir = dirs.get(parent);
+        if (dir != null && dir.created) {
+            return;
+        }
+        targetPath.resolve(parent).toFile().mkdirs();
+        plan(parent).created = true;
+    }
+
+    /**
+     * Same as {@link #ensureParent(String)} for a directory entry, its metadata is applied at the end
+     */
+    void ensureDirectory(String name, int unixMode, long time) {
+        addDirectory(name, unixMode, time);
+        String path = trim(name);
+        if (!path.isEmpty()) {
+            targetPath.resolve(path).toFile().mkdirs();
+            dirs.get(path).created = true;
+        }
+    }
+
+    /**
+     * Applies the modes and mtimes of the directory entries, deepest level first
+     *
+     * @param threads number of threads
+     * @throws InterruptedException if the operation was interrupted
+     */
+    void applyMetadata(int threads) throws InterruptedException {
+        List<List<Dir>> levels = levels();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            for (int i = levels.size() - 1; i >= 0; i--) {
+                List<Dir> level = levels.get(i);
+                pool.submit(() -> level.parallelStream().forEach(dir -> inSlot(dir, this::applyMetadata))).get();
+            }
+        } catch (ExecutionException e) {
+            errors.add(targetPath + ": " + e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return number of directories of the tree
+     */
+    int size() {
+        return dirs.size();
+    }
+
+    private Dir plan(String path) {
+        Dir dir = dirs.get(path);
+        if (dir != null) {
+            return dir;
+        }
+        dir = dirs.computeIfAbsent(path, Dir::new);
+        //the parents of a known directory are known too
+        int slash = path.lastIndexOf('/');
+        if (slash > 0) {
+            plan(path.substring(0, slash));
+        }
+        return dir;
+    }
+
+    private List<List<Dir>> levels() {
+        List<List<Dir>> levels = new ArrayList<>();
+        for (Dir dir : dirs.values()) {
+            while (levels.size() <= dir.depth) {
+                levels.add(new ArrayList<>());
+            }
+            levels.get(dir.depth).add(dir);
+        }
+        return levels;
+    }
+
+    private void inSlot(Dir dir, Consumer<Dir> task) {
+        if (budget == null) {
+            task.accept(dir);
+            return;
+        }
+        try {
+            budget.runInSlot(() -> task.accept(dir));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            errors.add(dir.path + ": interrupted");
+        }
+    }
+
+    private void mkdir(Dir dir) {
+        Path path = targetPath.resolve(dir.path);
+        try {
+            Files.createDirectory(path);
+        } catch (FileAlreadyExistsException e) {
+            if (!Files.isDirectory(path)) {
+                errors.add(dir.path + ": a file is in the way of the directory");
+            }
+        } catch (IOException e) {
+            errors.add(dir.path + ": " + e);
+        }
+        dir.created = true;
+    }
+
+    private void applyMetadata(Dir dir) {
+        Path path = targetPath.resolve(dir.path);
+        try {
+            FileMetadata.apply(path, dir.unixMode, dir.time);
+        } catch (IOException e) {
+            errors.add(dir.path + ": " + e);
+        }
+    }
+
+    private static String trim(String name) {
+        return name.endsWith("/") ? name.substring(0, name.length() - 1) : name;
+    }
+
+    private static class Dir {
+        private final String path;
+        private final int depth;
+        private volatile int unixMode = 0;
+        private volatile long time = -1;
+        private volatile boolean created = false;
+
+        Dir(String path) {
+            this.path = path;
+            int depth = 0;
+            for (int i = 0; i < path.length(); i++) {
+                if (path.charAt(i) == '/') {
+                    depth++;
+                }
+            }
+            this.depth = depth;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/* Copyright (c) 2017 Frederick Alvarez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+/*
+   DESCRIPTION
+    Decodes the names of zip entries the same way on every reader
+
+   PRIVATE CLASSES
+    N/A
+
+   NOTES
+    Names are UTF-8 when bit 11 of the general purpose flags (EFS) is set.
+    Without it the zip spec says CP437, but Info-ZIP zip on Linux writes
+    UTF-8 names without the flag, so they are read as UTF-8 too, the same
+    default as the commons ZipFile readers, invalid bytes are replaced the
+    same way. A name without the flag might come with the Unicode path
+    extra field of Info-ZIP, which is used when the CRC32 it carries
+    matches the raw name, as commons does. The central directory readers,
+    the stream reader and ZipFile give the same file names
+    https://pkware.cachefly.net/webdocs/casestudies/APPNOTE.TXT
+
+   MODIFIED  (MM/DD/YY)
+    donhk     10/18/26 - Creation
+    donhk     10/18/26 - UTF-8 by default like ZipFile, not CP437
+ */
+package com.donhk.Zip;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * @author donhk
+ */
+final class EntryNames {
+
+    private static final int EFS_FLAG = 1 << 11;
+    private static final int UNICODE_PATH_ID = 0x7075;
+
+    private EntryNames() {
+    }
+
+    /**
+     * @param flags general purpose flags of the entry
+     * @return true if the name is UTF-8 and the extra field is not needed to decode it
+     */
+    static boolean isUtf8(int flags) {
+        return (flags & EFS_FLAG) != 0;
+    }
+
+    /**
+     * @param rawName bytes of the name as stored in the header
+     * @param flags   general purpose flags of the entry
+     * @param extra   extra field of the header, it is only read when the name is not UTF-8
+     * @return the name of the entry
+     */
+    static String decode(byte[] rawName, int flags, byte[] extra) {
+        if (isUtf8(flags)) {
+            return new String(rawName, StandardCharsets.UTF_8);
+        }
+        for (int i = 0; i + 4 <= extra.length; i += 4 + u16(extra, i + 2)) {
+            int length = u16(extra, i + 2);
+            //version, CRC32 of the raw name and the UTF-8 name
+            if (u16(extra, i) == UNICODE_PATH_ID && length >= 5 && i + 4 + length <= extra.length && extra[i + 4] == 1) {
+                CRC32 crc = new CRC32();
+                crc.update(rawName);
+                long expected = (u16(extra, i + 5) | (long) u16(extra, i + 7) << 16) & 0xFFFFFFFFL;
+                if (crc.getValue() == expected) {
+                    return new String(extra, i + 9, length - 5, StandardCharsets.UTF_8);
+                }
+            }
+        }
+        return new String(rawName, StandardCharsets.UTF_8);
+    }
+
+    private static int u16(byte[] b, int off) {
+        return (b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8;
+    }
+}
@@ -0,0 +1,291 @@
+/* Copyright (c) 2017 Frederick Alvarez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+/*
+   DESCRIPTION
+    Journal of the entries an extraction finished, so an extraction that
+    died can be resumed
+
+   PRIVATE CLASSES
+    Record
+
+   NOTES
+    Every file is written under a temporary name and renamed once it is
+    complete, only then it is recorded. Records are kept in memory and
+    appended in batches, once per interval or when a batch is full: first
+    the files of the batch and the directories of their renames are
+    synced, then the records are written and the journal is synced, so a
+    file on the journal is never half written and no file pays for a sync
+    of its own while the workers write. A crash loses at most the last
+    batch and those entries are extracted again. The journal is named
+    after a hash of the canonical path of the zip file, so archives
+    extracted into the same directory keep their own. The first line
+    identifies the zip file by its path, size and mtime, a journal of
+    another zip file or of an older version of it is ignored. A torn last
+    line is cut before appending. The journal is deleted once an
+    extraction ends without errors
+
+   MODIFIED  (MM/DD/YY)
+    donhk     10/18/26 - Creation
+    donhk     10/18/26 - One journal per zip file, directories synced with it
+    donhk     10/18/26 - Files synced in batches with the journal
+ */
+package com.donhk.Zip;
+
+import com.google.common.hash.Hashing;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @author donhk
+ */
+class ExtractionJournal {
+
+    private static final String FILE_PREFIX = ".zipper-journal-";
+    private static final String MAGIC = "zipper-journal";
+    //records appended and files synced at once
+    private static final int BATCH = 1024;
+    private static final long SYNC_INTERVAL = 1000;
+
+    private final File targetPath;
+    private final File journalFile;
+    private final String header;
+    private final Map<String, Record> finished = new HashMap<>();
+    //files renamed since the last sync and their parents
+    private final List<File> renamed = new ArrayList<>();
+    private final Set<File> renamedIn = new HashSet<>();
+    private final StringBuilder pending = new StringBuilder();
+    private int pendingRecords = 0;
+    private long lastSync = System.currentTimeMillis();
+    private FileChannel channel;
+
+    /**
+     * @param targetPath directory where the zip file is extracted
+     * @param zipFile    zip file being extracted
+     */
+    ExtractionJournal(File targetPath, File zipFile) {
+        this.targetPath = targetPath;
+        this.journalFile = new File(targetPath, FILE_PREFIX + pathHash(zipFile));
+        this.header = MAGIC + "\t" + zipFile.length() + "\t" + zipFile.lastModified() + "\t" + zipFile.getAbsolutePath();
+    }
+
+    /**
+     * @param name file name relative to the output directory
+     * @return true if the file is the journal of a zip file
+     */
+    static boolean isJournal(String name) {
+        return name.startsWith(FILE_PREFIX) && name.indexOf('/') < 0;
+    }
+
+    /**
+     * Opens the journal, keeping the records of the previous extraction if it is resumed
+     *
+     * @param resume true to keep the records of the same zip file, false to start over
+     * @return number of entries the previous extraction finished
+     * @throws IOException if the journal could not be read or written
+     */
+    synchronized long open(boolean resume) throws IOException {
+        long valid = resume ? load() : 0;
+        channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.truncate(valid);
+        channel.position(valid);
+        if (valid == 0) {
+            finished.clear();
+            write(header + "\n");
+            channel.force(false);
+        }
+        return finished.size();
+    }
+
+    /**
+     * Tells whether a previous extraction finished the entry, the file must still be on disk
+     * with the size of the entry
+     *
+     * @param name entry name
+     * @param size uncompressed size of the entry
+     * @param crc  CRC of the entry
+     * @return true if the entry doesn't need to be extracted again
+     * @throws IOException if the file could not be read
+     */
+    boolean isFinished(String name, long size, long crc) throws IOException {
+        Record record;
+        synchronized (this) {
+            record = finished.get(name);
+        }
+        if (record == null || record.size != size || record.crc != crc) {
+            return false;
+        }
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(new File(targetPath, name).toPath(),
+                    BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            return attrs.isRegularFile() && attrs.size() == size;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Records a file that was completely written and renamed, it doesn't need to be synced
+     *
+     * @throws IOException if the journal could not be written
+     */
+    synchronized void record(String name, long size, long crc) throws IOException {
+        //the name goes last since it might have tabs
+        pending.append(crc).append('\t').append(size).append('\t').append(name).append('\n');
+        pendingRecords++;
+        File file = new File(targetPath, name);
+        renamed.add(file);
+        renamedIn.add(file.getParentFile());
+        long now = System.currentTimeMillis();
+        if (pendingRecords >= BATCH || now - lastSync >= SYNC_INTERVAL) {
+            sync();
+            lastSync = now;
+        }
+    }
+
+    /**
+     * Writes and syncs the pending records, the journal is deleted if the extraction is complete
+     *
+     * @param complete true if every entry was extracted without errors
+     * @throws IOException if the journal could not be written
+     */
+    synchronized void close(boolean complete) throws IOException {
+        if (channel == null) {
+            return;
+        }
+        try {
+            if (!complete) {
+                sync();
+            }
+        } finally {
+            channel.close();
+            channel = null;
+        }
+        if (complete) {
+            Files.deleteIfExists(journalFile.toPath());
+        }
+    }
+
+    /**
+     * @return length of the valid part of the journal, 0 if it is missing or belongs to another zip file
+     */
+    private long load() throws IOException {
+        if (!journalFile.isFile()) {
+            return 0;
+        }
+        long valid = 0;
+        try (BufferedReader reader = Files.newBufferedReader(journalFile.toPath(), StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (line == null || !line.equals(header)) {
+                System.out.println("The journal belongs to another zip file, starting over");
+                return 0;
+            }
+            valid = line.getBytes(StandardCharsets.UTF_8).length + 1;
+            while ((line = reader.readLine()) != null) {
+                long length = line.getBytes(StandardCharsets.UTF_8).length + 1;
+                String[] fields = line.split("\t", 3);
+                if (valid + length > journalFile.length() || fields.length != 3) {
+                    //torn by a crash
+                    break;
+                }
+                try {
+                    finished.put(fields[2], new Record(Long.parseLong(fields[1]), Long.parseLong(fields[0])));
+                } catch (NumberFormatException e) {
+                    break;
+                }
+                valid += length;
+            }
+        }
+        return valid;
+    }
+
+    /**
+     * Syncs the recorded files and the directories of their renames, then appends their
+     * records and syncs the journal, a record that survives a crash never points to data
+     * or a rename that was lost
+     */
+    private void sync() throws IOException {
+        for (File file : renamed) {
+            //java.io opens the names the platform charset can't hold the way they were written
+            try (FileInputStream in = new FileInputStream(file)) {
+                in.getChannel().force(false);
+            } catch (FileNotFoundException e) {
+                //removed since, the record is checked against the disk when it is resumed
+            }
+        }
+        renamed.clear();
+        for (File directory : renamedIn) {
+            try (FileChannel dir = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+                dir.force(true);
+            } catch (IOException e) {
+                //directories can't be opened on windows, its renames are durable once they return
+            }
+        }
+        renamedIn.clear();
+        write(pending.toString());
+        pending.setLength(0);
+        pendingRecords = 0;
+        channel.force(false);
+    }
+
+    private static String pathHash(File zipFile) {
+        String path;
+        try {
+            path = zipFile.getCanonicalPath();
+        } catch (IOException e) {
+            path = zipFile.getAbsolutePath();
+        }
+        return Hashing.sha256().hashString(path, StandardCharsets.UTF_8).toString().substring(0, 16);
+    }
+
+    private void write(String text) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static class Record {
+        private final long size;
+        private final long crc;
+
+        Record(long size, long crc) {
+            this.size = size;
+            this.crc = crc;
+        }
+    }
+}
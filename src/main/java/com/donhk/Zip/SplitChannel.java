@@ -0,0 +1,313 @@
+/* Copyright (c) 2017 Frederick Alvarez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+/*
+   DESCRIPTION
+    Read only channel over the segments of a split zip file, as if they
+    were a single file
+
+   PRIVATE CLASSES
+    N/A
+
+   NOTES
+    zip -s writes name.z01, name.z02... and the last segment as name.zip,
+    the first one starts with the spanning signature. Offsets in the zip
+    records are relative to the start of their disk, disk n being the
+    segment n + 1, so the logical position of an offset is the sum of the
+    sizes of the segments before its disk plus the offset. Every segment
+    keeps its own channel and positional reads go straight to the channel
+    of the segment they fall in, cut at its end, so the threads reading
+    entries of different segments never share a file and an entry that
+    crosses segments is read as one run of bytes. Nothing locks the
+    segments, locks are rejected like on any other read only channel
+
+   MODIFIED  (MM/DD/YY)
+    donhk     10/18/26 - Creation
+    donhk     10/18/26 - Locks rejected like on other read only channels
+ */
+package com.donhk.Zip;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author donhk
+ */
+class SplitChannel extends FileChannel {
+
+    private final FileChannel[] segments;
+    //logical position of the first byte of every segment, plus the total size
+    private final long[] starts;
+    private long position = 0;
+
+    private SplitChannel(FileChannel[] segments, long[] starts) {
+        this.segments = segments;
+        this.starts = starts;
+    }
+
+    /**
+     * Finds the segments of the split zip file the file belongs to, it can be any of them
+     *
+     * @param file segment of a split zip file or a regular zip file
+     * @return the segments in disk order, only the file itself if it is not split
+     */
+    static List<File> segments(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        String extension = dot < 0 ? "" : name.substring(dot + 1).toLowerCase();
+        if (!extension.equals("zip") && !extension.matches("z[0-9]{2,}")) {
+            return Collections.singletonList(file);
+        }
+        String base = dot < 0 ? name : name.substring(0, dot);
+        List<File> segments = new ArrayList<>();
+        for (int disk = 1; ; disk++) {
+            File segment = new File(file.getParentFile(), base + String.format(".z%02d", disk));
+            if (!segment.isFile()) {
+                break;
+            }
+            segments.add(segment);
+        }
+        File last = new File(file.getParentFile(), base + ".zip");
+        if (segments.isEmpty() || !last.isFile()) {
+            return Collections.singletonList(file);
+        }
+        segments.add(last);
+        return segments;
+    }
+
+    /**
+     * @param files segments in disk order
+     * @return channel reading all of them
+     * @throws IOException if a segment can't be opened
+     */
+    static SplitChannel open(List<File> files) throws IOException {
+        FileChannel[] segments = new FileChannel[files.size()];
+        long[] starts = new long[files.size() + 1];
+        try {
+            for (int i = 0; i < segments.length; i++) {
+                segments[i] = FileChannel.open(files.get(i).toPath(), StandardOpenOption.READ);
+                starts[i + 1] = starts[i] + segments[i].size();
+            }
+        } catch (IOException e) {
+            for (FileChannel segment : segments) {
+                if (segment != null) {
+                    segment.close();
+                }
+            }
+            throw e;
+        }
+        return new SplitChannel(segments, starts);
+    }
+
+    /**
+     * @return number of segments, one per disk
+     */
+    int getDisks() {
+        return segments.length;
+    }
+
+    /**
+     * @param disk   disk number of a zip record
+     * @param offset offset relative to the start of the disk
+     * @return position of the offset on this channel
+     * @throws IOException if the disk is not part of the set
+     */
+    long toLogical(long disk, long offset) throws IOException {
+        if (disk < 0 || disk >= segments.length) {
+            throw new IOException("Segment " + (disk + 1) + " of the split zip file is missing");
+        }
+        return starts[(int) disk] + offset;
+    }
+
+    /**
+     * @return true if the region is not inside a single segment, such a region can't be mapped
+     */
+    boolean crossesSegments(long position, long size) {
+        int segment = segmentOf(position);
+        return position + size > starts[segment + 1];
+    }
+
+    @Override
+    public int read(ByteBuffer dst, long position) throws IOException {
+        if (position >= size()) {
+            return -1;
+        }
+        int segment = segmentOf(position);
+        long available = starts[segment + 1] - position;
+        if (dst.remaining() <= available) {
+            return segments[segment].read(dst, position - starts[segment]);
+        }
+        //cut at the end of the segment, the callers read again for the rest
+        ByteBuffer slice = dst.duplicate();
+        slice.limit(slice.position() + (int) available);
+        int read = segments[segment].read(slice, position - starts[segment]);
+        if (read > 0) {
+            dst.position(dst.position() + read);
+        }
+        return read;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        int read = read(dst, position);
+        if (read > 0) {
+            position += read;
+        }
+        return read;
+    }
+
+    @Override
+    public synchronized long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            while (dsts[i].hasRemaining()) {
+                int read = read(dsts[i]);
+                if (read <= 0) {
+                    return total == 0 && read < 0 ? -1 : total;
+                }
+                total += read;
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        if (position >= size()) {
+            return 0;
+        }
+        int segment = segmentOf(position);
+        long available = Math.min(count, starts[segment + 1] - position);
+        return segments[segment].transferTo(position - starts[segment], available, target);
+    }
+
+    /**
+     * Only the regions inside a single segment can be mapped
+     */
+    @Override
+    public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+        if (crossesSegments(position, size)) {
+            throw new IOException("The region crosses segments of the split zip file");
+        }
+        int segment = segmentOf(position);
+        return segments[segment].map(mode, position - starts[segment], size);
+    }
+
+    @Override
+    public synchronized long position() {
+        return position;
+    }
+
+    @Override
+    public synchronized FileChannel position(long newPosition) {
+        this.position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() {
+        return starts[segments.length];
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public int write(ByteBuffer src, long position) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public FileChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long transferFrom(ReadableByteChannel src, long position, long count) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public void force(boolean metaData) {
+        //nothing is written
+    }
+
+    @Override
+    public FileLock lock(long position, long size, boolean shared) {
+        return tryLock(position, size, shared);
+    }
+
+    @Override
+    public FileLock tryLock(long position, long size, boolean shared) {
+        if (!shared) {
+            throw new NonWritableChannelException();
+        }
+        throw new UnsupportedOperationException("Split zip files can't be locked");
+    }
+
+    @Override
+    protected void implCloseChannel() throws IOException {
+        IOException error = null;
+        for (FileChannel segment : segments) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private int segmentOf(long position) {
+        int index = Arrays.binarySearch(starts, 0, segments.length, position);
+        //empty segments share their start with the next one
+        if (index >= 0) {
+            while (index + 1 < segments.length && starts[index + 1] == position) {
+                index++;
+            }
+            return index;
+        }
+        return -index - 2;
+    }
+}
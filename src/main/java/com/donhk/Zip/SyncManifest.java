@@ -0,0 +1,248 @@
+/* Copyright (c) 2017 Frederick Alvarez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+/*
+   DESCRIPTION
+    Keeps track of the files extracted on a target directory so that a new
+    extraction of the same zip file only writes the files that changed
+
+   PRIVATE CLASSES
+    Record
+
+   NOTES
+    The manifest stores per file the size, CRC and time of the entry plus
+    the mtime the file got on disk when it was written. If the file still
+    has that size and mtime it is taken as unchanged without reading it,
+    otherwise a file with the right size is hashed and compared with the
+    CRC of the entry
+
+   MODIFIED  (MM/DD/YY)
+    donhk     10/18/26 - Creation
+    donhk     10/18/26 - Disk mtime read on save, after the metadata stage
+    donhk     10/18/26 - Records of the files a filtered extraction didn't look at are kept
+    donhk     10/18/26 - The extraction journal is not extraneous
+ */
+package com.donhk.Zip;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * @author donhk
+ */
+class SyncManifest {
+
+    static final String FILE_NAME = ".zipper-manifest";
+    private static final int BUFFER = 1024 * 128;
+    private static final long UNKNOWN = -1;
+
+    private final File targetPath;
+    private final File manifestFile;
+    private final Map<String, Record> previous = new HashMap<>();
+    private final Map<String, Record> current = new ConcurrentHashMap<>();
+    private final Set<String> seen = ConcurrentHashMap.newKeySet();
+    private final AtomicLong upToDate = new AtomicLong();
+
+    SyncManifest(File targetPath) {
+        this.targetPath = targetPath;
+        this.manifestFile = new File(targetPath, FILE_NAME);
+    }
+
+    /**
+     * Reads the manifest left by the previous extraction, if there is one
+     *
+     * @throws IOException if the manifest could not be read
+     */
+    void load() throws IOException {
+        if (!manifestFile.isFile()) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(manifestFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                //crc size time diskTime name, the name goes last since it might have tabs
+                String[] fields = line.split("\t", 5);
+                if (fields.length != 5) {
+                    continue;
+                }
+                try {
+                    previous.put(fields[4], new Record(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                            Long.parseLong(fields[2]), Long.parseLong(fields[3])));
+                } catch (NumberFormatException e) {
+                    //broken line, the file will be hashed
+                }
+            }
+        }
+    }
+
+    /**
+     * Tells whether the file on disk already has the content of the entry, symlinks are never
+     * up to date since recreating them is cheaper than checking them
+     *
+     * @param name entry name
+     * @param size uncompressed size of the entry
+     * @param crc  CRC of the entry
+     * @param time last modification time of the entry
+     * @return true if the entry doesn't need to be extracted
+     * @throws IOException if the file could not be read
+     */
+    boolean isUpToDate(String name, long size, long crc, long time) throws IOException {
+        seen.add(name);
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(new File(targetPath, name).toPath(), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        if (!attrs.isRegularFile() || attrs.size() != size) {
+            return false;
+        }
+        long diskTime = attrs.lastModifiedTime().toMillis();
+        Record record = previous.get(name);
+        if (record != null && record.crc == crc && record.size == size && record.time == time && record.diskTime == diskTime) {
+            current.put(name, record);
+            upToDate.incrementAndGet();
+            return true;
+        }
+        if (crc32(new File(targetPath, name)) == crc) {
+            current.put(name, new Record(crc, size, time, diskTime));
+            upToDate.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Marks an entry as part of the zip file without checking it
+     *
+     * @param name entry name
+     */
+    void markSeen(String name) {
+        seen.add(name);
+    }
+
+    /**
+     * Records a file that has just been written, its mtime on disk is read when the manifest
+     * is saved since it changes once the metadata of the entry is applied
+     */
+    void record(String name, long size, long crc, long time) {
+        seen.add(name);
+        current.put(name, new Record(crc, size, time, UNKNOWN));
+    }
+
+    /**
+     * @return number of entries that were skipped because the file was up to date
+     */
+    long getUpToDate() {
+        return upToDate.get();
+    }
+
+    /**
+     * Deletes the files and symlinks of the target directory that are not in the zip file
+     *
+     * @return number of files deleted
+     * @throws IOException if the target directory could not be read
+     */
+    long deleteExtraneous() throws IOException {
+        final Path base = targetPath.toPath();
+        final AtomicLong deleted = new AtomicLong();
+        Files.walkFileTree(base, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                String name = base.relativize(file).toString().replace(File.separatorChar, '/');
+                if (!seen.contains(name) && !name.equals(FILE_NAME) && !ExtractionJournal.isJournal(name)) {
+                    Files.delete(file);
+                    deleted.incrementAndGet();
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return deleted.get();
+    }
+
+    /**
+     * Carries over the records of the previous extraction that were not looked at this time,
+     * used when only part of the zip file was extracted
+     */
+    void retainUnseen() {
+        for (Map.Entry<String, Record> entry : previous.entrySet()) {
+            if (!seen.contains(entry.getKey())) {
+                current.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Replaces the manifest with the files of this extraction
+     *
+     * @throws IOException if the manifest could not be written
+     */
+    void save() throws IOException {
+        File tmp = new File(targetPath, FILE_NAME + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Record> entry : current.entrySet()) {
+                Record record = entry.getValue();
+                if (record.diskTime == UNKNOWN) {
+                    record.diskTime = new File(targetPath, entry.getKey()).lastModified();
+                }
+                writer.write(record.crc + "\t" + record.size + "\t" + record.time + "\t" + record.diskTime + "\t" + entry.getKey());
+                writer.newLine();
+            }
+        }
+        Files.move(tmp.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static long crc32(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] data = new byte[BUFFER];
+        try (InputStream is = new FileInputStream(file)) {
+            int read;
+            while ((read = is.read(data)) != -1) {
+                crc.update(data, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static class Record {
+        private final long crc;
+        private final long size;
+        private final long time;
+        private long diskTime;
+
+        Record(long crc, long size, long time, long diskTime) {
+            this.crc = crc;
+            this.size = size;
+            this.time = time;
+            this.diskTime = diskTime;
+        }
+    }
+}
@@ -26,61 +26,145 @@
     Class in charge of decompress a zip file on a target directory
 
    PRIVATE CLASSES
-    N/A
+    MappedWorker
 
    NOTES
-    N/A
+    Every worker thread keeps its own input and output buffers and deflated
+    entries are inflated straight from positional reads of the zip file
+    with an Inflater taken from a pool, so extracting an entry allocates
+    little more than its FileOutputStream. The directories are created by
+    a DirectorySkeleton before the files so the workers never check paths.
+    Workers queue modes, mtimes and symlinks on a MetadataStage, the modes
+    and mtimes of the files are applied in batches as they run and the
+    symlinks once every regular file has been written. Entries go to the
+    workers through a bounded queue so no per entry job or future is kept.
+    In mapped mode nothing is held per entry but the symlinks, the
+    directories and the positions of the records. The commons ZipFile
+    reader of the default mode keeps all its entries, as do the selected
+    entries of the index and of split zip files, the sync manifest and a
+    resumed journal.
+    With an EntryFilter only the accepted entries are extracted, and with
+    the index enabled they are looked up on a sorted sidecar index of the
+    zip file so repeated selective extractions never scan the central
+    directory, the data is read through the mapped reader. Files are
+    written under a temporary name and renamed once complete, then
+    recorded on a journal so a resumed extraction skips them, the journal
+    syncs the files in batches instead of one by one. The segments
+    of a split zip file are read as one channel through the mapped
+    central directory, its file entries are queued alternating segments
+    so the workers read several segments at the same time
 
    MODIFIED  (MM/DD/YY)
     donhk     11/25/17 - Creation
+    donhk     10/18/26 - Size aware fork/join scheduling, configurable threads
+    donhk     10/18/26 - Zero copy extraction of stored entries
+    donhk     10/18/26 - Mapped central directory mode for huge archives
+    donhk     10/18/26 - Sync mode, skip the files that are up to date
+    donhk     10/18/26 - Extractor engine, errors are collected instead of printed
+    donhk     10/18/26 - Extraction metrics
+    donhk     10/18/26 - Configurable buffer size
+    donhk     10/18/26 - Worker buffers and inflater pool
+    donhk     10/18/26 - Directory skeleton created before the files
+    donhk     10/18/26 - Metadata stage, modes, mtimes and symlinks after the files
+    donhk     10/18/26 - Bounded dispatcher instead of one job per entry
+    donhk     10/18/26 - Include/exclude filters and sidecar entry index
+    donhk     10/18/26 - Shared work budget for batch extraction
+    donhk     10/18/26 - Temporary names, journal of finished entries and resume
+    donhk     10/18/26 - Split zip files
+    donhk     10/18/26 - Budget slots for the directory and metadata stages
+    donhk     10/18/26 - Files synced in batches by the journal
  */
 package com.donhk.Zip;
 
+import com.donhk.engine.EntryFilter;
+import com.donhk.engine.Extractor;
+import com.donhk.engine.WorkBudget;
+import com.donhk.io.InflaterPool;
+import com.donhk.io.MetadataStage;
+import com.donhk.metrics.ExtractionMetrics;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipFile;
+import com.google.common.collect.Iterators;
+import org.apache.commons.io.IOUtils;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.concurrent.Callable;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
 
 /**
  * @author donhk
  */
-public class Zip {
+public class Zip implements Extractor {
 
     private ZipFile myZip;
+    private FileChannel zipChannel;
     private int BUFFER = 1024 * 128;
-    private CountDownLatch latch = new CountDownLatch(0);
+    //modes and mtimes of files applied at once while the workers run
+    private static final int METADATA_BATCH = 4096;
+    private boolean verifyStored = false;
+    private boolean mapped = false;
+    private boolean useIndex = false;
+    private EntryFilter filter = new EntryFilter();
+    //file entries taken from the index, null when the index is not used
+    private List<CentralEntry> indexedEntries;
+    //segments of a split zip file in disk order, only the zip file if it is not split
+    private List<File> segments;
+    private CentralDirectory centralDirectory;
+    private final AtomicInteger nextIndex = new AtomicInteger();
+    private boolean sync = false;
+    private boolean deleteExtraneous = false;
+    private SyncManifest syncManifest;
+    private long deletedFiles = 0;
+    private boolean resume = false;
+    private ExtractionJournal journal;
+    private final AtomicLong resumedFiles = new AtomicLong();
+    private final ThreadLocal<ByteBuffer> directBuffer = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER));
+    //compressed bytes read from the zip file and uncompressed bytes written to the target file
+    private final ThreadLocal<byte[]> inputBuffer = ThreadLocal.withInitial(() -> new byte[BUFFER]);
+    private final ThreadLocal<byte[]> outputBuffer = ThreadLocal.withInitial(() -> new byte[BUFFER]);
+    private InflaterPool inflaters;
+    private DirectorySkeleton skeleton;
+    private MetadataStage metadata;
+    private final AtomicLong filesRemaining = new AtomicLong();
     private final File zipFile;
     private final File targetPath;
+    private final int threads;
+    private List<String> utilizationReport = Collections.emptyList();
     private long totalFiles = 0; //total files that will be processed
-    private List<ZipJob> zipJobs = new ArrayList<>();
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+    private ExtractionMetrics metrics = new ExtractionMetrics();
+    private WorkBudget budget = null;
     private boolean IS_WINDOWS = System.getProperty("os.name").toLowerCase().contains("windows");
 
-    //Unix file flags
-    private final int S_IRUSR = 256;   // OWNER_READ
-    private final int S_IWUSR = 128;   // OWNER_WRITE
-    private final int S_IXUSR = 64;    // OWNER_EXECUTE
-    private final int S_IRGRP = 32;    // GROUP_READ
-    private final int S_IWGRP = 16;    // GROUP_WRITE
-    private final int S_IXGRP = 8;     // GROUP_EXECUTE
-    private final int S_IROTH = 4;     // OTHERS_READ
-    private final int S_IWOTH = 2;     // OTHERS_WRITE
-    private final int S_IXOTH = 1;     // OTHERS_EXECUTE
-
     public Zip(String zipFile, String targetPath) {
+        this(zipFile, targetPath, Runtime.getRuntime().availableProcessors());
+    }
+
+    public Zip(String zipFile, String targetPath, int threads) {
         this.zipFile = new File(zipFile);
         this.targetPath = new File(targetPath);
+        this.threads = threads;
     }
 
+    @Override
     public boolean prepare() throws IOException {
-        if (!validateZipFile()) {
+        segments = SplitChannel.segments(zipFile);
+        if (!validateZipFile(segments.get(0), segments.size() > 1)) {
             return false;
         }
         // create output directory if it doesn't exist
@@ -92,109 +176,628 @@ public class Zip {
         }
 
         System.out.println("Reading zip file " + zipFile.getAbsolutePath());
+        skeleton = new DirectorySkeleton(targetPath, errors);
+        metadata = new MetadataStage(targetPath.toPath(), errors);
+        //the files are complete when they are queued and a later write replaces them by rename
+        metadata.setBatchSize(METADATA_BATCH);
+        if (sync) {
+            syncManifest = new SyncManifest(targetPath);
+            syncManifest.load();
+        }
+        journal = new ExtractionJournal(targetPath, zipFile);
+        long finished = journal.open(resume);
+        if (resume) {
+            System.out.println(finished + " files were finished by the previous extraction");
+        }
+        if (segments.size() > 1) {
+            return prepareSplit();
+        }
+        if (useIndex) {
+            return prepareIndexed();
+        }
+        if (mapped) {
+            //the entries are decoded by the workers while the directory is still being scanned
+            centralDirectory = new CentralDirectory(zipFile);
+            zipChannel = centralDirectory.getChannel();
+            filesRemaining.set(centralDirectory.getExpectedEntries());
+            //the filter is applied as the entries are found
+            totalFiles = filter.isEmpty() ? centralDirectory.getExpectedEntries() : -1;
+            centralDirectory.scanAsync();
+            return true;
+        }
         myZip = new ZipFile(zipFile);
+        //shared by all the workers, only positional reads are done on it
+        zipChannel = FileChannel.open(zipFile.toPath(), StandardOpenOption.READ);
         Enumeration<? extends ZipArchiveEntry> zipFileEntries = myZip.getEntries();
-        int filesRemaining = 0;
+        long files = 0;
         //perform a pre-count so that we can know how many files
         //will be unzipped and thus do some maths to track the progress
         while (zipFileEntries.hasMoreElements()) {
             ZipArchiveEntry entry = zipFileEntries.nextElement();
-            if (!entry.isDirectory()) {
-                zipJobs.add(new ZipJob(entry));
-                filesRemaining++;
+            if (!filter.accepts(entry.getName())) {
+                continue;
+            }
+            if (entry.isDirectory()) {
+                skeleton.addDirectory(entry.getName(), entry.getUnixMode(), entry.getTime());
+            } else {
+                skeleton.addFile(entry.getName());
+                files++;
+            }
+        }
+        totalFiles = files;
+        filesRemaining.set(files);
+        return true;
+    }
+
+    /**
+     * Takes the entries from the sidecar index, the index is written from the central directory
+     * first when it is missing or the zip file changed since it was written
+     */
+    private boolean prepareIndexed() throws IOException {
+        centralDirectory = new CentralDirectory(zipFile);
+        zipChannel = centralDirectory.getChannel();
+        List<CentralEntry> selected = new ArrayList<>();
+        try {
+            ZipIndex index = ZipIndex.open(zipFile);
+            if (index == null) {
+                centralDirectory.scan();
+                //throws the error of the scan if it stopped before the last record
+                centralDirectory.await(centralDirectory.getScanned());
+                try {
+                    ZipIndex.write(zipFile, centralDirectory);
+                    index = ZipIndex.open(zipFile);
+                } catch (IOException e) {
+                    System.out.println("Can't write the index of the zip file, " + e.getMessage());
+                }
+            }
+            if (index != null) {
+                selected = index.select(filter);
+            } else {
+                for (int i = 0; i < centralDirectory.getScanned(); i++) {
+                    CentralEntry entry = centralDirectory.await(i);
+                    if (filter.accepts(entry.getName())) {
+                        selected.add(entry);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading the index of " + zipFile.getName());
+        }
+        indexedEntries = new ArrayList<>();
+        for (CentralEntry entry : selected) {
+            if (entry.isDirectory()) {
+                skeleton.addDirectory(entry.getName(), entry.getUnixMode(), entry.getTime());
+            } else {
+                skeleton.addFile(entry.getName());
+                indexedEntries.add(entry);
             }
         }
-        totalFiles = filesRemaining;
-        latch = new CountDownLatch(filesRemaining);
+        totalFiles = indexedEntries.size();
+        filesRemaining.set(totalFiles);
+        return true;
+    }
+
+    /**
+     * Reads the central directory of a split zip file, the entries are extracted the same way
+     * as the ones taken from the index. The file entries are ordered taking one of every
+     * segment in turn, a worker reading an entry of one segment leaves the next entry of
+     * the queue to be read from another one
+     */
+    private boolean prepareSplit() throws IOException {
+        System.out.println("Split zip file of " + segments.size() + " segments");
+        if (useIndex) {
+            System.out.println("The index is not used with split zip files");
+        }
+        centralDirectory = new CentralDirectory(zipFile, SplitChannel.open(segments));
+        zipChannel = centralDirectory.getChannel();
+        //entries per disk, in the order of the central directory
+        SortedMap<Integer, Deque<CentralEntry>> disks = new TreeMap<>();
+        try {
+            centralDirectory.scan();
+            //throws the error of the scan if it stopped before the last record
+            centralDirectory.await(centralDirectory.getScanned());
+            for (int i = 0; i < centralDirectory.getScanned(); i++) {
+                CentralEntry entry = centralDirectory.await(i);
+                if (!filter.accepts(entry.getName())) {
+                    continue;
+                }
+                if (entry.isDirectory()) {
+                    skeleton.addDirectory(entry.getName(), entry.getUnixMode(), entry.getTime());
+                } else {
+                    skeleton.addFile(entry.getName());
+                    disks.computeIfAbsent(entry.getDiskNumber(), disk -> new ArrayDeque<>()).add(entry);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading the central directory of " + zipFile.getName());
+        }
+        indexedEntries = new ArrayList<>();
+        while (!disks.isEmpty()) {
+            Iterator<Deque<CentralEntry>> it = disks.values().iterator();
+            while (it.hasNext()) {
+                Deque<CentralEntry> entries = it.next();
+                indexedEntries.add(entries.poll());
+                if (entries.isEmpty()) {
+                    it.remove();
+                }
+            }
+        }
+        totalFiles = indexedEntries.size();
+        filesRemaining.set(totalFiles);
         return true;
     }
 
     /**
      * Decompress using the Apaches's Zip API + homemade code which gives support for permission
-     * restoration, symlinks handling and parallelism
+     * restoration, symlinks handling and parallelism, the biggest entries are extracted first
+     * while the small ones fill the gaps
      *
      * @return true if the file extraction was successfully, false otherwise
      * @throws IOException          if there was a problem creating the process that calls the unzip or IO error
      * @throws InterruptedException if the operation was interrupted finishes
      */
     public boolean unzipFile() throws IOException, InterruptedException {
-        int cores = Runtime.getRuntime().availableProcessors();
-        if (cores > 8) {
-            cores = 8;
-        }
-        ExecutorService executor = Executors.newFixedThreadPool(cores);
-        executor.invokeAll(zipJobs);
-        latch.await();
-        executor.shutdown();
+        boolean complete = false;
+        try {
+            unzipEntries();
+            complete = errors.isEmpty();
+        } finally {
+            //kept for a resume unless every entry was extracted
+            journal.close(complete);
+        }
+        return complete;
+    }
+
+    private void unzipEntries() throws IOException, InterruptedException {
+        skeleton.setBudget(budget);
+        metadata.setBudget(budget);
+        inflaters = new InflaterPool(threads);
+        try {
+            if (indexedEntries != null) {
+                unzipIndexed();
+            } else if (mapped) {
+                unzipMapped();
+            } else {
+                BoundedDispatcher<ZipArchiveEntry> dispatcher = new BoundedDispatcher<>(threads, Zip::sizeOf, this::unzipEntry);
+                dispatcher.setBudget(budget);
+                try {
+                    skeleton.create(threads);
+                    dispatcher.dispatch(() -> Iterators.filter(Iterators.forEnumeration(myZip.getEntries()), e -> !e.isDirectory() && filter.accepts(e.getName())));
+                } finally {
+                    if (myZip != null) {
+                        zipChannel.close();
+                        myZip.close();
+                    }
+                }
+                utilizationReport = dispatcher.getUtilizationReport();
+            }
+        } finally {
+            inflaters.close();
+        }
+        metadata.apply(threads);
+        if (syncManifest != null) {
+            if (!filter.isEmpty()) {
+                //only part of the tree was looked at, nothing can be taken as extraneous
+                syncManifest.retainUnseen();
+            } else if (deleteExtraneous) {
+                deletedFiles = syncManifest.deleteExtraneous();
+            }
+            syncManifest.save();
+        }
+        //the directories are not touched anymore
+        skeleton.applyMetadata(threads);
+    }
+
+    @Override
+    public boolean extract() throws IOException, InterruptedException {
+        return unzipFile();
+    }
+
+    @Override
+    public void setMetrics(ExtractionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void setBudget(WorkBudget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * In sync mode the files that already exist on the target directory with the same size
+     * and CRC as the entry are not written again, a manifest kept on the target directory
+     * avoids hashing the files that were not touched since the last extraction
+     *
+     * @param sync             true to skip the files that are up to date
+     * @param deleteExtraneous true to delete the files of the target directory that are not in the zip file
+     */
+    public void setSync(boolean sync, boolean deleteExtraneous) {
+        this.sync = sync;
+        this.deleteExtraneous = deleteExtraneous;
+    }
+
+    /**
+     * Skips the entries a previous extraction into the same target directory finished, the
+     * entries it left half written are extracted again
+     *
+     * @param resume true to resume the previous extraction, false to start over
+     */
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
+    /**
+     * @return number of files that were skipped because a previous extraction finished them
+     */
+    public long getResumedFiles() {
+        return resumedFiles.get();
+    }
+
+    /**
+     * Resume mode only, tells whether a previous extraction finished the entry. Its metadata is
+     * queued again since that extraction might have died before applying it
+     */
+    private boolean isResumed(String name, long size, long crc, int mode, long time) throws IOException {
+        if (!journal.isFinished(name, size, crc)) {
+            return false;
+        }
+        metadata.addFile(name, mode, time);
+        if (syncManifest != null) {
+            syncManifest.record(name, size, crc, time);
+        }
+        resumedFiles.incrementAndGet();
         return true;
     }
 
+    /**
+     * @return temporary name of a file while it is written, on the same directory so it can be renamed
+     */
+    private static File partFile(File destFile) {
+        return new File(destFile.getPath() + ".zipper-part");
+    }
+
+    /**
+     * Gives its name to a completely written file and records it on the journal
+     */
+    private void commit(String name, File partFile, File destFile, long size, long crc) throws IOException {
+        //the journal syncs the data of the batch before it says the file is finished
+        //java.io maps the names the platform charset can't hold the way the baseline writes did
+        if (!partFile.renameTo(destFile)) {
+            //it doesn't replace an existing file on Windows
+            Files.move(partFile.toPath(), destFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        journal.record(name, size, crc);
+    }
+
+    /**
+     * @return number of files that were skipped in sync mode
+     */
+    public long getUpToDateFiles() {
+        return syncManifest == null ? 0 : syncManifest.getUpToDate();
+    }
+
+    /**
+     * @return number of files deleted from the target directory in sync mode
+     */
+    public long getDeletedFiles() {
+        return deletedFiles;
+    }
+
+    /**
+     * Sync mode only, tells whether the entry can be skipped. Whatever is going to be replaced
+     * is removed first since a symlink on the way would make the write follow it
+     */
+    private boolean isSynced(String name, boolean symlink, long size, long crc, long time, File destFile) throws IOException {
+        if (symlink) {
+            syncManifest.markSeen(name);
+            Files.deleteIfExists(destFile.toPath());
+            return false;
+        }
+        if (syncManifest.isUpToDate(name, size, crc, time)) {
+            return true;
+        }
+        if (Files.isSymbolicLink(destFile.toPath())) {
+            Files.delete(destFile.toPath());
+        }
+        return false;
+    }
+
+    /**
+     * Extracts the entries in central directory order, every worker claims the next record
+     * as soon as the scan has found it so there is no need to wait for the full directory
+     */
+    private void unzipMapped() throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int i = 0; i < threads; i++) {
+                executor.execute(new MappedWorker());
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } finally {
+            executor.shutdownNow();
+            centralDirectory.close();
+        }
+        //the declared number of entries might be wrong on broken archives
+        filesRemaining.set(0);
+    }
+
+    /**
+     * Extracts the entries taken from the index, the data is read through the mapped central directory
+     */
+    private void unzipIndexed() throws IOException, InterruptedException {
+        BoundedDispatcher<CentralEntry> dispatcher = new BoundedDispatcher<>(threads,
+                entry -> Math.max(entry.getSize(), entry.getCompressedSize()), this::unzipEntry);
+        dispatcher.setBudget(budget);
+        try {
+            skeleton.create(threads);
+            dispatcher.dispatch(indexedEntries);
+        } finally {
+            centralDirectory.close();
+        }
+        utilizationReport = dispatcher.getUtilizationReport();
+    }
+
+    /**
+     * Only the entries accepted by the filter are extracted, directories included, the
+     * parents of the accepted files are always created
+     *
+     * @param filter include and exclude rules, every entry is extracted by default
+     */
+    public void setFilter(EntryFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Keeps a sorted index of the entries next to the zip file, file.zip.idx, and extracts the
+     * entries found on it. The index is rebuilt when the zip file changes, only stored and
+     * deflated entries are supported, same as the mapped central directory
+     *
+     * @param useIndex true to use the sidecar index
+     */
+    public void setIndex(boolean useIndex) {
+        this.useIndex = useIndex;
+    }
+
+    /**
+     * Reads the central directory from a memory map and keeps only the offsets of the records,
+     * meant for archives with millions of entries where the regular reader needs GBs of heap.
+     * Entries are extracted in directory order and only stored and deflated entries are supported
+     *
+     * @param mapped true to use the mapped central directory
+     */
+    public void setMapped(boolean mapped) {
+        this.mapped = mapped;
+    }
+
+    /**
+     * Stored entries are copied straight from the zip file to the target file without passing
+     * through the heap, by default their CRC is not checked since that requires reading the bytes
+     *
+     * @param verifyStored true to compute the CRC of the stored entries while they are copied
+     */
+    public void setVerifyStored(boolean verifyStored) {
+        this.verifyStored = verifyStored;
+    }
+
+    /**
+     * Releases the zip file when the extraction is not going to run, {@link #unzipFile()} does it by itself
+     *
+     * @throws IOException if there was an IO error
+     */
+    public void close() throws IOException {
+        if (centralDirectory != null) {
+            centralDirectory.close();
+        }
+        if (myZip != null) {
+            zipChannel.close();
+            myZip.close();
+        }
+    }
+
+    /**
+     * Must be called before the extraction starts
+     *
+     * @param bufferSize bytes copied at once from an entry to its target file, 128 KB by default
+     */
+    public void setBufferSize(int bufferSize) {
+        this.BUFFER = bufferSize;
+    }
+
+    /**
+     * @return busy time of every worker of the last extraction
+     */
+    public List<String> getUtilizationReport() {
+        return utilizationReport;
+    }
+
     /**
      * @return number of files remaining of being decompressed
      */
+    @Override
     public long getFilesRemaining() {
-        return latch.getCount();
+        return filesRemaining.get();
     }
 
     /**
      * @return total files which will be unzipped
      */
+    @Override
     public long getTotalFiles() {
         return totalFiles;
     }
 
     /**
-     * Sets the unix permissions over a file
+     * Waits for the scan of the central directory that prepare starts in mapped mode
      *
-     * @param filePermissions decimal representation of permission of the file
-     * @param targetFile      file to which the file permission will be applied
-     * @throws IOException if there was an error setting the permissions
+     * @return number of entries of the central directory, the total files if it is not scanned
+     * @throws IOException          if the scan found a corrupt directory
+     * @throws InterruptedException if the wait was interrupted
      */
-    private void restorePermissions(int filePermissions, String targetFile) throws IOException {
-        //clean up extra bytes
-        int permissions = filePermissions & 0xFFF;
-
-        //using PosixFilePermission to set file permissions 777
-        Set<PosixFilePermission> perms = new HashSet<PosixFilePermission>();
-        //add owner permission
-        if ((permissions & S_IRUSR) != 0) {
-            perms.add(PosixFilePermission.OWNER_READ);
-        }
-        if ((permissions & S_IWUSR) != 0) {
-            perms.add(PosixFilePermission.OWNER_WRITE);
-        }
-        if ((permissions & S_IXUSR) != 0) {
-            perms.add(PosixFilePermission.OWNER_EXECUTE);
-        }
-        //add group permissions
-        if ((permissions & S_IRGRP) != 0) {
-            perms.add(PosixFilePermission.GROUP_READ);
-        }
-        if ((permissions & S_IWGRP) != 0) {
-            perms.add(PosixFilePermission.GROUP_WRITE);
+    public long awaitScan() throws IOException, InterruptedException {
+        if (centralDirectory == null) {
+            return totalFiles;
         }
-        if ((permissions & S_IXGRP) != 0) {
-            perms.add(PosixFilePermission.GROUP_EXECUTE);
+        //there is no such record, it returns once the scan is over
+        centralDirectory.await(Integer.MAX_VALUE);
+        return centralDirectory.getScanned();
+    }
+
+    @Override
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    /**
+     * Copies a stored entry from the zip file to the target file, the kernel does the copy
+     * unless the CRC needs to be verified, in that case the bytes go through a direct buffer
+     *
+     * @param name       name of the entry
+     * @param dataOffset position of the first byte of the entry in the zip file
+     * @param size       size of the entry
+     * @param crc        expected CRC of the entry
+     * @param destFile   file that will be written
+     * @throws IOException if there was an IO error or the CRC doesn't match
+     */
+    private void copyStored(String name, long dataOffset, long size, long crc, File destFile) throws IOException {
+        long position = dataOffset;
+        long remaining = size;
+        try (FileOutputStream out = new FileOutputStream(destFile); FileChannel dest = out.getChannel()) {
+            if (!verifyStored) {
+                while (remaining > 0) {
+                    long copied = zipChannel.transferTo(position, remaining, dest);
+                    if (copied <= 0) {
+                        throw new EOFException("Truncated entry " + name);
+                    }
+                    position += copied;
+                    remaining -= copied;
+                }
+                return;
+            }
+            CRC32 checksum = new CRC32();
+            ByteBuffer buffer = directBuffer.get();
+            while (remaining > 0) {
+                buffer.clear();
+                if (remaining < buffer.capacity()) {
+                    buffer.limit((int) remaining);
+                }
+                int read = zipChannel.read(buffer, position);
+                if (read <= 0) {
+                    throw new EOFException("Truncated entry " + name);
+                }
+                buffer.flip();
+                checksum.update(buffer);
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    dest.write(buffer);
+                }
+                position += read;
+                remaining -= read;
+            }
+            if (checksum.getValue() != crc) {
+                throw new IOException("CRC mismatch on entry " + name);
+            }
         }
-        //add others permissions
-        if ((permissions & S_IROTH) != 0) {
-            perms.add(PosixFilePermission.OTHERS_READ);
+    }
+
+    /**
+     * Inflates a deflated entry reading it straight from the zip file, only the buffers of the
+     * worker and a pooled inflater are used
+     *
+     * @param name           name of the entry
+     * @param dataOffset     position of the first byte of the entry in the zip file
+     * @param compressedSize size of the entry in the zip file
+     * @param size           uncompressed size of the entry, -1 if unknown
+     * @param destFile       file that will be written
+     * @throws IOException if there was an IO error or the deflated data is corrupt
+     */
+    private void inflate(String name, long dataOffset, long compressedSize, long size, File destFile) throws IOException {
+        byte[] input = inputBuffer.get();
+        byte[] output = outputBuffer.get();
+        ByteBuffer inputView = ByteBuffer.wrap(input);
+        Inflater inflater = inflaters.acquire();
+        long position = dataOffset;
+        long remaining = compressedSize;
+        long written = 0;
+        boolean dummy = false;
+        try (FileOutputStream dest = new FileOutputStream(destFile)) {
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    if (remaining > 0) {
+                        inputView.clear();
+                        if (remaining < input.length) {
+                            inputView.limit((int) remaining);
+                        }
+                        int read = zipChannel.read(inputView, position);
+                        if (read <= 0) {
+                            throw new EOFException("Truncated entry " + name);
+                        }
+                        inflater.setInput(input, 0, read);
+                        position += read;
+                        remaining -= read;
+                    } else if (!dummy) {
+                        //raw inflate may ask for one byte past the end of the data, same as ZipFile does
+                        input[0] = 0;
+                        inflater.setInput(input, 0, 1);
+                        dummy = true;
+                    } else {
+                        throw new EOFException("Truncated entry " + name);
+                    }
+                }
+                int length = inflater.inflate(output);
+                if (length > 0) {
+                    dest.write(output, 0, length);
+                    written += length;
+                } else if (inflater.needsDictionary()) {
+                    throw new IOException("Corrupt deflated data on entry " + name);
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt deflated data on entry " + name, e);
+        } finally {
+            inflaters.release(inflater);
         }
-        if ((permissions & S_IWOTH) != 0) {
-            perms.add(PosixFilePermission.OTHERS_WRITE);
+        if (size >= 0 && written != size) {
+            throw new IOException("Size mismatch on entry " + name);
         }
-        if ((permissions & S_IXOTH) != 0) {
-            perms.add(PosixFilePermission.OTHERS_EXECUTE);
+    }
+
+    /**
+     * Writes the content of an entry to the target file, used for the methods that are not
+     * inflated by {@link #inflate}
+     *
+     * @param is       uncompressed content of the entry, it is closed once read
+     * @param destFile file that will be written
+     * @throws IOException if there was an IO error
+     */
+    private void writeStream(InputStream is, File destFile) throws IOException {
+        byte[] data = outputBuffer.get();
+        try (InputStream in = is; FileOutputStream dest = new FileOutputStream(destFile)) {
+            int read;
+            while ((read = in.read(data)) != -1) {
+                dest.write(data, 0, read);
+            }
         }
-        Files.setPosixFilePermissions(Paths.get(targetFile), perms);
     }
 
     /**
      * Verifies that the zip file is real zip file and not another type of file
      *
+     * @param zipFile file to review
      * @return true of the file is a zup file, false otherwise
      */
-    private boolean validateZipFile() {
+    static boolean validateZipFile(File zipFile) {
+        return validateZipFile(zipFile, false);
+    }
+
+    /**
+     * @param zipFile file to review, the first segment of a split zip file
+     * @param split   true if the file is the first segment of a split zip file
+     * @return true of the file is a zip file, false otherwise
+     */
+    static boolean validateZipFile(File zipFile, boolean split) {
         //https://en.wikipedia.org/wiki/List_of_file_signatures
         long ZIP_SIGNATURE = 0x504B0304;
         long ZIP_EMPTY_FILE = 0x504B0506;
@@ -211,8 +814,8 @@ public class Zip {
                 //the zip file is empty
                 return false;
             } else if (firsBytes == ZIP_SPANNED_FILE) {
-                //not supported format
-                return false;
+                //only supported when the rest of the segments are there
+                return split;
             } else if (firsBytes == ZIP_SIGNATURE) {
                 //the file is valid
                 return true;
@@ -235,53 +838,172 @@ public class Zip {
         }
     }
 
-    private class ZipJob implements Callable<String> {
-        private ZipArchiveEntry entry;
+    private static long sizeOf(ZipArchiveEntry entry) {
+        //the size might be unknown for entries written in streaming mode
+        return Math.max(entry.getSize(), entry.getCompressedSize());
+    }
 
-        ZipJob(ZipArchiveEntry entry) {
-            this.entry = entry;
+    /**
+     * Extracts a file entry, called by the workers of the dispatcher
+     */
+    private void unzipEntry(ZipArchiveEntry entry) {
+        long start = System.nanoTime();
+        try {
+            String fileName = entry.getName();
+            //the parent directory was created by the skeleton
+            File destFile = new File(targetPath, fileName);
+            if (!entry.isUnixSymlink() && isResumed(fileName, entry.getSize(), entry.getCrc(), entry.getUnixMode(), entry.getTime())) {
+                metrics.entryDone(fileName, 0, 0, System.nanoTime() - start);
+                return;
+            }
+            if (syncManifest != null && isSynced(fileName, entry.isUnixSymlink(), entry.getSize(),
+                    entry.getCrc(), entry.getTime(), destFile)) {
+                metrics.entryDone(fileName, 0, 0, System.nanoTime() - start);
+                return;
+            }
+
+            boolean encrypted = entry.getGeneralPurposeBit().usesEncryption();
+            if (entry.isUnixSymlink() && !IS_WINDOWS) {
+                //created once all the regular files exist
+                metadata.addSymlink(fileName, myZip.getUnixSymlink(entry));
+            } else {
+                File partFile = partFile(destFile);
+                try {
+                    if (entry.getMethod() == ZipEntry.STORED && !encrypted) {
+                        copyStored(fileName, entry.getDataOffset(), entry.getSize(), entry.getCrc(), partFile);
+                    } else if (entry.getMethod() == ZipEntry.DEFLATED && !encrypted) {
+                        inflate(fileName, entry.getDataOffset(), entry.getCompressedSize(), entry.getSize(), partFile);
+                    } else {
+                        writeStream(myZip.getInputStream(entry), partFile);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    partFile.delete();
+                    throw e;
+                }
+                commit(fileName, partFile, destFile, entry.getSize(), entry.getCrc());
+                metadata.addFile(fileName, entry.getUnixMode(), entry.getTime());
+            }
+            if (syncManifest != null && !entry.isUnixSymlink()) {
+                syncManifest.record(fileName, entry.getSize(), entry.getCrc(), entry.getTime());
+            }
+            metrics.entryDone(fileName, entry.getCompressedSize(), entry.getSize(), System.nanoTime() - start);
+        } catch (Exception e) {
+            errors.add(entry.getName() + ": " + e);
+            metrics.entryFailed(entry.getName(), e.toString(), System.nanoTime() - start);
+        } finally {
+            filesRemaining.decrementAndGet();
         }
+    }
 
-        public String call() {
-            try {
-                String fileName = entry.getName();
-                File destFile = new File(targetPath, fileName);
-                File destinationParent = destFile.getParentFile();
-                //recreate original structure
-                destinationParent.mkdirs();
+    private class MappedWorker implements Runnable {
 
-                if (entry.isUnixSymlink() && !IS_WINDOWS) {
-                    Files.createSymbolicLink(destFile.toPath(), Paths.get(myZip.getUnixSymlink(entry)));
-                } else {
-                    BufferedInputStream is = new BufferedInputStream(myZip.getInputStream(entry));
-                    int currentByte;
-                    // establish buffer for writing file
-                    byte data[] = new byte[BUFFER];
-
-                    // write the current file to disk
-                    FileOutputStream fos = new FileOutputStream(destFile);
-                    BufferedOutputStream dest = new BufferedOutputStream(fos, BUFFER);
-
-                    // read and write until last byte is encountered
-                    while ((currentByte = is.read(data, 0, BUFFER)) != -1) {
-                        dest.write(data, 0, currentByte);
+        public void run() {
+            while (true) {
+                CentralEntry entry;
+                try {
+                    entry = centralDirectory.await(nextIndex.getAndIncrement());
+                } catch (IOException e) {
+                    errors.add(zipFile.getName() + ": " + e);
+                    return;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (entry == null) {
+                    return;
+                }
+                if (filter.accepts(entry.getName())) {
+                    long granted;
+                    try {
+                        granted = budget == null ? 0 : budget.acquire(Math.max(entry.getSize(), entry.getCompressedSize()));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
                     }
-                    dest.flush();
-                    dest.close();
-                    is.close();
-
-                    //restore permissions if this is not windows
-                    if (!IS_WINDOWS) {
-                        restorePermissions(entry.getUnixMode(), destFile.getAbsolutePath());
+                    try {
+                        unzipEntry(entry);
+                    } catch (Error e) {
+                        //the worker dies with it, the run must not look complete
+                        errors.add(entry.getName() + ": " + e);
+                        throw e;
+                    } finally {
+                        if (budget != null) {
+                            budget.release(granted);
+                        }
                     }
+                } else {
+                    filesRemaining.decrementAndGet();
                 }
-            } catch (Exception e) {
-                e.printStackTrace();
-            } finally {
-                latch.countDown();
             }
-            return "done";
         }
     }
 
+    /**
+     * Extracts an entry of the mapped central directory or the index
+     */
+    private void unzipEntry(CentralEntry entry) {
+        long start = System.nanoTime();
+        try {
+            if (extract(entry)) {
+                metrics.entryDone(entry.getName(), entry.getCompressedSize(), entry.getSize(), System.nanoTime() - start);
+            } else {
+                metrics.entryDone(entry.getName(), 0, 0, System.nanoTime() - start);
+            }
+        } catch (Exception e) {
+            errors.add(entry.getName() + ": " + e);
+            metrics.entryFailed(entry.getName(), e.toString(), System.nanoTime() - start);
+        } finally {
+            filesRemaining.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return false if nothing was written, true otherwise
+     */
+    private boolean extract(CentralEntry entry) throws IOException {
+        String fileName = entry.getName();
+        File destFile = new File(targetPath, fileName);
+        if (entry.isDirectory()) {
+            skeleton.ensureDirectory(fileName, entry.getUnixMode(), entry.getTime());
+            return false;
+        }
+        //recreate original structure, the whole tree is not known up front
+        skeleton.ensureParent(fileName);
+        if (!entry.isUnixSymlink() && isResumed(fileName, entry.getSize(), entry.getCrc(), entry.getUnixMode(), entry.getTime())) {
+            return false;
+        }
+        if (syncManifest != null && isSynced(fileName, entry.isUnixSymlink(), entry.getSize(),
+                entry.getCrc(), entry.getTime(), destFile)) {
+            return false;
+        }
+
+        if (entry.isUnixSymlink() && !IS_WINDOWS) {
+            String link;
+            try (InputStream is = centralDirectory.getInputStream(entry)) {
+                link = new String(IOUtils.toByteArray(is), StandardCharsets.UTF_8);
+            }
+            //created once all the regular files exist
+            metadata.addSymlink(fileName, link);
+            return true;
+        }
+        File partFile = partFile(destFile);
+        try {
+            if (entry.getMethod() == ZipEntry.STORED && !entry.isEncrypted()) {
+                copyStored(fileName, centralDirectory.getDataOffset(entry), entry.getSize(), entry.getCrc(), partFile);
+            } else if (entry.getMethod() == ZipEntry.DEFLATED && !entry.isEncrypted()) {
+                inflate(fileName, centralDirectory.getDataOffset(entry), entry.getCompressedSize(), entry.getSize(), partFile);
+            } else {
+                writeStream(centralDirectory.getInputStream(entry), partFile);
+            }
+        } catch (IOException | RuntimeException e) {
+            partFile.delete();
+            throw e;
+        }
+        commit(fileName, partFile, destFile, entry.getSize(), entry.getCrc());
+        metadata.addFile(fileName, entry.getUnixMode(), entry.getTime());
+        if (syncManifest != null) {
+            syncManifest.record(fileName, entry.getSize(), entry.getCrc(), entry.getTime());
+        }
+        return true;
+    }
 }
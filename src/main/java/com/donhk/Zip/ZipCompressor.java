@@ -0,0 +1,516 @@
+/* Copyright (c) 2017 Frederick Alvarez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+/*
+   DESCRIPTION
+    Class in charge of compress a file or directory tree into a zip file
+
+   PRIVATE CLASSES
+    CompressJob, LargeFile
+
+   NOTES
+    Every worker thread deflates its entries into its own scatter file,
+    once all the entries are done the scatter files are stitched together
+    into the final zip file. Files that are too big to be handled by a single
+    thread are cut in blocks and deflated by all the threads the pigz way.
+    The scatter files and the deflated large files are kept next to the
+    zip file, on its file system, and not on a /tmp that might be small.
+    With a CompressionPolicy every file is stored or deflated at the level
+    the policy picks, the workers keep one scatter file per level.
+    In update mode the previous zip file is opened first and the files
+    with the same size and mtime as their entry are copied from it as raw
+    compressed bytes. Like git does with its index, a file modified in
+    the same 2 seconds as the previous zip file or later can't be told
+    apart by its mtime, those are hashed and reused only if the CRC still
+    matches. The new zip file replaces the old one once it is complete
+
+   MODIFIED  (MM/DD/YY)
+    donhk     10/18/26 - Creation
+    donhk     10/18/26 - Block parallel deflate of large files
+    donhk     10/18/26 - Per file compression policy
+    donhk     10/18/26 - Update mode, unchanged entries copied raw
+    donhk     10/18/26 - Temporary files next to the zip file
+ */
+package com.donhk.Zip;
+
+import com.donhk.io.ParallelDeflater;
+import org.apache.commons.compress.archivers.zip.ScatterZipOutputStream;
+import org.apache.commons.compress.archivers.zip.UnixStat;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntryRequest;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.archivers.zip.ZipLong;
+import org.apache.commons.compress.archivers.zip.ZipUtil;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * @author donhk
+ */
+public class ZipCompressor {
+
+    //files of this size or more are deflated by all the threads
+    private static final long LARGE_FILE = 32 * 1024 * 1024;
+    private static final int BLOCK_SIZE = 1024 * 1024;
+
+    private final File zipFile;
+    private final File sourcePath;
+    private final int threads;
+    private final int level;
+    private CountDownLatch latch = new CountDownLatch(0);
+    private long totalFiles = 0; //total files that will be processed
+    private List<ZipArchiveEntry> dirEntries = new ArrayList<>();
+    private List<CompressJob> compressJobs = new ArrayList<>();
+    private List<LargeFile> largeFiles = new ArrayList<>();
+    private final List<ScatterZipOutputStream> scatterStreams = Collections.synchronizedList(new ArrayList<>());
+    //scatter files of the current worker by deflate level
+    private final ThreadLocal<Map<Integer, ScatterZipOutputStream>> threadScatter = ThreadLocal.withInitial(HashMap::new);
+    private CompressionPolicy policy = null;
+    private final AtomicLong storedFiles = new AtomicLong();
+    private boolean update = false;
+    private ZipFile previousZip = null;
+    private long previousTime = 0;
+    private Map<String, ZipArchiveEntry> previousEntries = Collections.emptyMap();
+    //entries of the previous zip file copied as they are, with the metadata of the new entry
+    private final List<ZipArchiveEntry[]> reusedEntries = Collections.synchronizedList(new ArrayList<>());
+    private boolean IS_WINDOWS = System.getProperty("os.name").toLowerCase().contains("windows");
+
+    /**
+     * @param zipFile    zip file that will be created
+     * @param sourcePath file or directory that will be compressed
+     * @param threads    number of threads used to deflate the entries
+     * @param level      deflate level from 0 (store) to 9, -1 for the default level
+     */
+    public ZipCompressor(String zipFile, String sourcePath, int threads, int level) {
+        this.zipFile = new File(zipFile);
+        this.sourcePath = new File(sourcePath);
+        this.threads = threads;
+        this.level = level;
+    }
+
+    /**
+     * Walks the source tree and creates one job per regular file or symlink,
+     * entry names are relative to the parent of the source the same way zip -r does
+     *
+     * @return true if the tree could be read, false otherwise
+     * @throws IOException if there was an error walking the tree
+     */
+    public boolean prepare() throws IOException {
+        if (!sourcePath.exists()) {
+            return false;
+        }
+        final Path source = sourcePath.toPath().toAbsolutePath().normalize();
+        final Path base = source.getParent() == null ? source : source.getParent();
+
+        if (update && SplitChannel.segments(zipFile).size() > 1) {
+            System.err.println(zipFile.getName() + " is part of a split zip file, it can't be updated");
+            return false;
+        }
+        if (update && zipFile.length() > 0) {
+            previousZip = new ZipFile(zipFile);
+            previousTime = zipFile.lastModified();
+            previousEntries = new HashMap<>();
+            Enumeration<ZipArchiveEntry> entries = previousZip.getEntries();
+            while (entries.hasMoreElements()) {
+                ZipArchiveEntry entry = entries.nextElement();
+                previousEntries.put(entry.getName(), entry);
+            }
+            System.out.println("Updating zip file " + zipFile.getAbsolutePath() + " with " + previousEntries.size() + " entries");
+        }
+        System.out.println("Reading source tree " + source);
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                ZipArchiveEntry entry = new ZipArchiveEntry(entryName(base, dir) + "/");
+                entry.setTime(attrs.lastModifiedTime().toMillis());
+                entry.setUnixMode(UnixStat.DIR_FLAG | unixPermissions(dir, UnixStat.DEFAULT_DIR_PERM));
+                entry.setMethod(ZipEntry.STORED);
+                entry.setSize(0);
+                entry.setCrc(0);
+                dirEntries.add(entry);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                ZipArchiveEntry entry = new ZipArchiveEntry(entryName(base, file));
+                entry.setTime(attrs.lastModifiedTime().toMillis());
+                if (attrs.isSymbolicLink()) {
+                    entry.setUnixMode(UnixStat.LINK_FLAG | UnixStat.DEFAULT_LINK_PERM);
+                    entry.setMethod(ZipEntry.STORED);
+                } else if (attrs.isRegularFile()) {
+                    entry.setUnixMode(UnixStat.FILE_FLAG | unixPermissions(file, UnixStat.DEFAULT_FILE_PERM));
+                    entry.setMethod(level == 0 ? ZipEntry.STORED : ZipEntry.DEFLATED);
+                    ZipArchiveEntry previous = unchanged(entry, attrs);
+                    if (previous != null) {
+                        if (isRacy(attrs)) {
+                            //its CRC is checked by a worker
+                            compressJobs.add(new CompressJob(entry, file, previous));
+                        } else {
+                            reuse(entry, previous);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                    //the policy of the rest is applied by the workers, a large file it stores is copied by one of them
+                    if (level != 0 && attrs.size() >= LARGE_FILE && (policy == null || policy.levelFor(file) != 0)) {
+                        largeFiles.add(new LargeFile(entry, file));
+                        return FileVisitResult.CONTINUE;
+                    }
+                } else {
+                    //sockets, pipes and devices can't be stored
+                    return FileVisitResult.CONTINUE;
+                }
+                compressJobs.add(new CompressJob(entry, file));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        //the entries copied from the previous zip file are not part of the work
+        totalFiles = compressJobs.size() + largeFiles.size();
+        latch = new CountDownLatch((int) totalFiles);
+        return true;
+    }
+
+    /**
+     * Deflates all the entries in parallel into per thread scatter files and then
+     * stitches them into the target zip file
+     *
+     * @return true if the zip file was created successfully, false otherwise
+     * @throws IOException          if there was an IO error reading the sources or writing the zip
+     * @throws InterruptedException if the operation was interrupted
+     */
+    public boolean compress() throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (CompressJob compressJob : compressJobs) {
+                results.add(executor.submit(compressJob));
+            }
+            //the blocks of the large files are queued behind the small files so the pool never idles
+            ParallelDeflater deflater = new ParallelDeflater(executor, level, BLOCK_SIZE, threads * 2);
+            for (LargeFile largeFile : largeFiles) {
+                largeFile.deflate(deflater, tempFile(".deflated"));
+                latch.countDown();
+            }
+            for (Future<String> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    throw new IOException("Error compressing " + zipFile.getName(), e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        //the previous zip file is read until the new one is complete
+        File target = previousZip == null ? zipFile : new File(zipFile.getPath() + ".tmp");
+        ZipArchiveOutputStream out = new ZipArchiveOutputStream(target);
+        try {
+            //directories go first so that unzip can restore them before their content
+            for (ZipArchiveEntry dirEntry : dirEntries) {
+                out.putArchiveEntry(dirEntry);
+                out.closeArchiveEntry();
+            }
+            for (ScatterZipOutputStream scatter : scatterStreams) {
+                scatter.writeTo(out);
+            }
+            for (LargeFile largeFile : largeFiles) {
+                try (InputStream raw = new BufferedInputStream(new FileInputStream(largeFile.deflated))) {
+                    out.addRawArchiveEntry(largeFile.entry, raw);
+                }
+            }
+            for (ZipArchiveEntry[] reused : reusedEntries) {
+                try (InputStream raw = previousZip.getRawInputStream(reused[1])) {
+                    out.addRawArchiveEntry(reused[0], raw);
+                }
+            }
+        } finally {
+            for (ScatterZipOutputStream scatter : scatterStreams) {
+                scatter.close();
+            }
+            for (LargeFile largeFile : largeFiles) {
+                if (largeFile.deflated != null) {
+                    largeFile.deflated.delete();
+                }
+            }
+            out.close();
+            if (previousZip != null) {
+                previousZip.close();
+            }
+        }
+        if (target != zipFile) {
+            Files.move(target.toPath(), zipFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return true;
+    }
+
+    /**
+     * Must be called before {@link #prepare()}, without a policy every file is deflated
+     * at the level of the compressor
+     *
+     * @param policy decides per file if it is stored or deflated and at which level
+     */
+    public void setPolicy(CompressionPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * In update mode an existing zip file is the base of the new one, the entries of the files
+     * that didn't change are copied without inflating them and the entries of the files that
+     * no longer exist are dropped. Must be called before {@link #prepare()}
+     *
+     * @param update true to update the zip file if it exists
+     */
+    public void setUpdate(boolean update) {
+        this.update = update;
+    }
+
+    /**
+     * @return number of entries copied from the previous zip file
+     */
+    public long getReusedFiles() {
+        return reusedEntries.size();
+    }
+
+    /**
+     * @return number of files the policy decided to store
+     */
+    public long getStoredFiles() {
+        return storedFiles.get();
+    }
+
+    /**
+     * @return number of files remaining of being compressed
+     */
+    public long getFilesRemaining() {
+        return latch.getCount();
+    }
+
+    /**
+     * @return total files which will be compressed
+     */
+    public long getTotalFiles() {
+        return totalFiles;
+    }
+
+    /**
+     * @return the entry of the previous zip file with the same name, size and mtime, null if there is none
+     */
+    private ZipArchiveEntry unchanged(ZipArchiveEntry entry, BasicFileAttributes attrs) {
+        ZipArchiveEntry previous = previousEntries.get(entry.getName());
+        if (previous == null || previous.isUnixSymlink() || previous.getSize() != attrs.size()) {
+            return null;
+        }
+        //zip files keep the mtime with a resolution of 2 seconds
+        long time = ZipUtil.dosToJavaTime(ZipLong.getValue(ZipUtil.toDosTime(attrs.lastModifiedTime().toMillis())));
+        if (previous.getTime() != time || previous.getGeneralPurposeBit().usesEncryption()) {
+            return null;
+        }
+        return previous;
+    }
+
+    /**
+     * A file written in the 2 seconds before the previous zip file or after it might have
+     * changed without a different mtime on the zip file
+     */
+    private boolean isRacy(BasicFileAttributes attrs) {
+        return attrs.lastModifiedTime().toMillis() >= previousTime - 2000;
+    }
+
+    /**
+     * The entry keeps the name, mtime and permissions of the file and takes the compressed
+     * data of the previous entry
+     */
+    private void reuse(ZipArchiveEntry entry, ZipArchiveEntry previous) {
+        entry.setMethod(previous.getMethod());
+        entry.setCrc(previous.getCrc());
+        entry.setSize(previous.getSize());
+        entry.setCompressedSize(previous.getCompressedSize());
+        reusedEntries.add(new ZipArchiveEntry[]{entry, previous});
+    }
+
+    private static long crc32(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] data = new byte[1024 * 128];
+        try (InputStream is = Files.newInputStream(file)) {
+            int read;
+            while ((read = is.read(data)) != -1) {
+                crc.update(data, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static String entryName(Path base, Path path) {
+        String name = base.relativize(path).toString();
+        if (File.separatorChar != '/') {
+            name = name.replace(File.separatorChar, '/');
+        }
+        return name;
+    }
+
+    /**
+     * Reads the unix permissions of a file without following symlinks
+     *
+     * @param path         file to inspect
+     * @param defaultPerms permissions used when the file system is not posix
+     * @return the permission bits of the file e.g. 0755
+     * @throws IOException if there was an error reading the attributes
+     */
+    private int unixPermissions(Path path, int defaultPerms) throws IOException {
+        if (IS_WINDOWS) {
+            return defaultPerms;
+        }
+        int mode = 0;
+        //PosixFilePermission is declared from OWNER_READ (0400) down to OTHERS_EXECUTE (0001)
+        for (PosixFilePermission perm : Files.getPosixFilePermissions(path, LinkOption.NOFOLLOW_LINKS)) {
+            mode |= 1 << (8 - perm.ordinal());
+        }
+        return mode;
+    }
+
+    /**
+     * @param suffix suffix of the file name
+     * @return a new temporary file next to the zip file, deleted on exit if it is left behind
+     * @throws IOException if the file could not be created
+     */
+    private File tempFile(String suffix) throws IOException {
+        File tmp = File.createTempFile("zipper", suffix, zipFile.getAbsoluteFile().getParentFile());
+        tmp.deleteOnExit();
+        return tmp;
+    }
+
+    /**
+     * @param entryLevel deflate level of the entries that will be added, it doesn't matter for stored entries
+     * @return the scatter file owned by the current worker thread for that level, created on first use
+     * @throws IOException if the scatter file could not be created
+     */
+    private ScatterZipOutputStream scatterStream(int entryLevel) throws IOException {
+        Map<Integer, ScatterZipOutputStream> scatters = threadScatter.get();
+        ScatterZipOutputStream scatter = scatters.get(entryLevel);
+        if (scatter == null) {
+            scatter = ScatterZipOutputStream.fileBased(tempFile(".scatter"), entryLevel == 0 ? Deflater.DEFAULT_COMPRESSION : entryLevel);
+            scatters.put(entryLevel, scatter);
+            scatterStreams.add(scatter);
+        }
+        return scatter;
+    }
+
+    private class CompressJob implements Callable<String> {
+        private final ZipArchiveEntry entry;
+        private final Path file;
+        //entry of the previous zip file that can be reused if the CRC matches
+        private final ZipArchiveEntry previous;
+
+        CompressJob(ZipArchiveEntry entry, Path file) {
+            this(entry, file, null);
+        }
+
+        CompressJob(ZipArchiveEntry entry, Path file, ZipArchiveEntry previous) {
+            this.entry = entry;
+            this.file = file;
+            this.previous = previous;
+        }
+
+        public String call() throws IOException {
+            try {
+                if (previous != null && crc32(file) == previous.getCrc()) {
+                    reuse(entry, previous);
+                    return "done";
+                }
+                final byte[] payload;
+                if (entry.isUnixSymlink()) {
+                    //symlinks are stored as the path they point to
+                    payload = Files.readSymbolicLink(file).toString().getBytes(StandardCharsets.UTF_8);
+                } else {
+                    payload = null;
+                }
+                int entryLevel = level;
+                if (payload == null && policy != null && level != 0) {
+                    entryLevel = policy.levelFor(file);
+                    if (entryLevel == 0) {
+                        entry.setMethod(ZipEntry.STORED);
+                        storedFiles.incrementAndGet();
+                    }
+                }
+                //stored entries don't care about the level, they share the scatter file of the default one
+                scatterStream(entryLevel == 0 ? level : entryLevel).addArchiveEntry(ZipArchiveEntryRequest.createZipArchiveEntryRequest(entry, () -> {
+                    if (payload != null) {
+                        return new ByteArrayInputStream(payload);
+                    }
+                    try {
+                        return Files.newInputStream(file);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                latch.countDown();
+            }
+            return "done";
+        }
+    }
+
+    private static class LargeFile {
+        private final ZipArchiveEntry entry;
+        private final Path file;
+        private File deflated;
+
+        LargeFile(ZipArchiveEntry entry, Path file) {
+            this.entry = entry;
+            this.file = file;
+        }
+
+        /**
+         * Deflates the file into a temporary file, the sizes and CRC are set on the entry
+         * so it can be copied as a raw entry
+         *
+         * @param deflated temporary file that receives the raw deflate stream
+         */
+        void deflate(ParallelDeflater deflater, File deflated) throws IOException, InterruptedException {
+            this.deflated = deflated;
+            ParallelDeflater.Result result;
+            try (InputStream in = Files.newInputStream(file);
+                 OutputStream out = new BufferedOutputStream(new FileOutputStream(deflated))) {
+                result = deflater.deflate(in, out);
+            }
+            entry.setCrc(result.getCrc());
+            entry.setSize(result.getSize());
+            entry.setCompressedSize(result.getCompressedSize());
+        }
+    }
+
+}
@@ -0,0 +1,285 @@
+/* Copyright (c) 2017 Frederick Alvarez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+/*
+   DESCRIPTION
+    Sidecar index of a zip file with its entries sorted by name
+
+   PRIVATE CLASSES
+    N/A
+
+   NOTES
+    The index is written next to the zip file as file.zip.idx and is valid
+    while the zip file keeps the size and mtime stored in its header.
+    Layout, big endian:
+      header   magic, version, zip size, zip mtime, count, padding (32 bytes)
+      records  count fixed records of 64 bytes sorted by name, they keep
+               the fields of the central directory needed to extract
+      names    UTF-8 names, records point to them by offset and length
+    It is memory mapped and searched in place, the names are sorted by
+    their unsigned bytes so the records of a prefix are a contiguous
+    range found with a binary search. Nothing is decoded for the entries
+    outside of the ranges the filter asks for
+
+   MODIFIED  (MM/DD/YY)
+    donhk     10/18/26 - Creation
+    donhk     10/18/26 - Bounds of the names checked on open
+ */
+package com.donhk.Zip;
+
+import com.donhk.engine.EntryFilter;
+import com.google.common.primitives.UnsignedBytes;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * @author donhk
+ */
+class ZipIndex {
+
+    static final String EXTENSION = ".idx";
+    private static final int MAGIC = 0x5A494458; //ZIDX
+    //3 since names without the EFS flag are UTF-8 again, version 2 read them as CP437
+    private static final int VERSION = 3;
+    private static final int HEADER_LENGTH = 32;
+    private static final int RECORD_LENGTH = 64;
+    private static final byte[] RECORD_PADDING = new byte[6];
+
+    private final MappedByteBuffer index;
+    private final int count;
+    private final long namesOffset;
+
+    private ZipIndex(MappedByteBuffer index, int count) {
+        this.index = index;
+        this.count = count;
+        this.namesOffset = HEADER_LENGTH + (long) count * RECORD_LENGTH;
+    }
+
+    /**
+     * @param zipFile indexed zip file
+     * @return the index of the zip file, null if there is none or it is stale or broken
+     */
+    static ZipIndex open(File zipFile) {
+        File indexFile = new File(zipFile.getPath() + EXTENSION);
+        if (!indexFile.isFile() || indexFile.length() < HEADER_LENGTH || indexFile.length() > Integer.MAX_VALUE) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            //the mapping stays valid once the channel is closed
+            MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (index.getInt(0) != MAGIC || index.getInt(4) != VERSION
+                    || index.getLong(8) != zipFile.length() || index.getLong(16) != zipFile.lastModified()) {
+                return null;
+            }
+            int count = index.getInt(24);
+            if (count < 0 || HEADER_LENGTH + (long) count * RECORD_LENGTH > index.limit()) {
+                return null;
+            }
+            //a truncated or corrupt index is rebuilt like a stale one
+            long namesLength = index.limit() - HEADER_LENGTH - (long) count * RECORD_LENGTH;
+            for (int i = 0; i < count; i++) {
+                int record = HEADER_LENGTH + i * RECORD_LENGTH;
+                long nameOffset = index.getLong(record);
+                int nameLength = index.getInt(record + 44);
+                if (nameOffset < 0 || nameLength < 0 || nameOffset + nameLength > namesLength) {
+                    return null;
+                }
+            }
+            return new ZipIndex(index, count);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the index of a zip file, the file is replaced at once so readers never see half of it
+     *
+     * @param zipFile   zip file being indexed
+     * @param directory central directory of the zip file, already scanned
+     * @throws IOException          if the index could not be written
+     * @throws InterruptedException if the operation was interrupted
+     */
+    static void write(File zipFile, CentralDirectory directory) throws IOException, InterruptedException {
+        int count = directory.getScanned();
+        byte[][] names = new byte[count][];
+        long namesLength = 0;
+        for (int i = 0; i < count; i++) {
+            names[i] = directory.await(i).getName().getBytes(StandardCharsets.UTF_8);
+            namesLength += names[i].length;
+        }
+        if (HEADER_LENGTH + (long) count * RECORD_LENGTH + namesLength > Integer.MAX_VALUE) {
+            throw new IOException("Too many entries to index " + zipFile.getName());
+        }
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Comparator<byte[]> byName = UnsignedBytes.lexicographicalComparator();
+        Arrays.sort(order, (a, b) -> byName.compare(names[a], names[b]));
+
+        File indexFile = new File(zipFile.getPath() + EXTENSION);
+        File tmp = new File(zipFile.getPath() + EXTENSION + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1024 * 128))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(zipFile.length());
+            out.writeLong(zipFile.lastModified());
+            out.writeInt(count);
+            out.writeInt(0);
+            long nameOffset = 0;
+            for (int i : order) {
+                CentralEntry entry = directory.await(i);
+                out.writeLong(nameOffset);
+                out.writeLong(entry.getLocalHeaderOffset());
+                out.writeLong(entry.getCompressedSize());
+                out.writeLong(entry.getSize());
+                out.writeInt((int) entry.getCrc());
+                out.writeInt((int) entry.getDosTime());
+                out.writeInt((int) entry.getExternalAttributes());
+                out.writeInt(names[i].length);
+                out.writeInt(entry.getDiskNumber());
+                out.writeShort(entry.getMethod());
+                out.writeShort(entry.getFlags());
+                out.writeShort(entry.getPlatform());
+                out.write(RECORD_PADDING);
+                nameOffset += names[i].length;
+            }
+            for (int i : order) {
+                out.write(names[i]);
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return number of entries of the index
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Looks only at the ranges of names that start with the literal prefixes of the filter
+     *
+     * @param filter rules of the entries to extract
+     * @return the accepted entries in name order
+     */
+    List<CentralEntry> select(EntryFilter filter) {
+        List<long[]> ranges = new ArrayList<>();
+        List<String> prefixes = filter.getPrefixes();
+        if (prefixes == null) {
+            ranges.add(new long[]{0, count});
+        } else {
+            for (String prefix : prefixes) {
+                byte[] bytes = prefix.getBytes(StandardCharsets.UTF_8);
+                int lo = lowerBound(bytes);
+                int hi = lo;
+                while (hi < count && startsWith(hi, bytes)) {
+                    hi++;
+                }
+                ranges.add(new long[]{lo, hi});
+            }
+            ranges.sort(Comparator.comparingLong(range -> range[0]));
+        }
+        List<CentralEntry> selected = new ArrayList<>();
+        int next = 0;
+        for (long[] range : ranges) {
+            //overlapping prefixes, like a/ and a/b/, share part of their range
+            for (int i = (int) Math.max(range[0], next); i < range[1]; i++) {
+                String name = name(i);
+                if (filter.accepts(name)) {
+                    selected.add(entry(i, name));
+                }
+            }
+            next = (int) Math.max(next, range[1]);
+        }
+        return selected;
+    }
+
+    private CentralEntry entry(int i, String name) {
+        int record = HEADER_LENGTH + i * RECORD_LENGTH;
+        return new CentralEntry(i, name, index.getShort(record + 56) & 0xFFFF, index.getShort(record + 54) & 0xFFFF,
+                index.getShort(record + 52) & 0xFFFF, index.getInt(record + 36) & 0xFFFFFFFFL,
+                index.getInt(record + 32) & 0xFFFFFFFFL, index.getLong(record + 16), index.getLong(record + 24),
+                index.getInt(record + 48), index.getInt(record + 40) & 0xFFFFFFFFL, index.getLong(record + 8));
+    }
+
+    private String name(int i) {
+        return new String(nameBytes(i), StandardCharsets.UTF_8);
+    }
+
+    private byte[] nameBytes(int i) {
+        int record = HEADER_LENGTH + i * RECORD_LENGTH;
+        byte[] name = new byte[index.getInt(record + 44)];
+        int offset = (int) (namesOffset + index.getLong(record));
+        for (int j = 0; j < name.length; j++) {
+            name[j] = index.get(offset + j);
+        }
+        return name;
+    }
+
+    /**
+     * @return first record whose name is not below the key
+     */
+    private int lowerBound(byte[] key) {
+        Comparator<byte[]> byName = UnsignedBytes.lexicographicalComparator();
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (byName.compare(nameBytes(mid), key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private boolean startsWith(int i, byte[] prefix) {
+        int record = HEADER_LENGTH + i * RECORD_LENGTH;
+        if (index.getInt(record + 44) < prefix.length) {
+            return false;
+        }
+        int offset = (int) (namesOffset + index.getLong(record));
+        for (int j = 0; j < prefix.length; j++) {
+            if (index.get(offset + j) != prefix[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,350 @@
+/* Copyright (c) 2017 Frederick Alvarez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+/*
+   DESCRIPTION
+    Thread safe random access to the entries of a zip file without
+    extracting it
+
+   PRIVATE CLASSES
+    PooledInflaterInputStream
+
+   NOTES
+    The central directory is read once by ZipFile and the entries are kept
+    in a hash map by name that is never modified afterwards. Stored and
+    deflated data is read with positional reads on one FileChannel shared
+    by all the callers, the channel doesn't lock them against each other.
+    Small entries are inflated whole, checked against their CRC and kept
+    in an LRU cache bounded by the sum of their sizes, big entries are
+    streamed and never cached. Other compression methods go through the
+    ZipFile of commons compress
+
+   MODIFIED  (MM/DD/YY)
+    donhk     10/18/26 - Creation
+ */
+package com.donhk.Zip;
+
+import com.donhk.io.InflaterPool;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.io.IOUtils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * @author donhk
+ */
+public class ZipReader implements Closeable {
+
+    private static final long DEFAULT_CACHE = 64 * 1024 * 1024;
+    //entries bigger than this fraction of the cache are streamed
+    private static final int CACHE_FRACTION = 8;
+    private static final int BUFFER = 1024 * 64;
+
+    private final File zipFile;
+    private final ZipFile myZip;
+    private final FileChannel channel;
+    private final Map<String, ZipArchiveEntry> entries;
+    private final InflaterPool inflaters = new InflaterPool(Runtime.getRuntime().availableProcessors());
+    private final long cacheLimit;
+    private final long maxCachedEntry;
+    //access ordered, guarded by itself
+    private final LinkedHashMap<String, byte[]> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes = 0;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public ZipReader(File zipFile) throws IOException {
+        this(zipFile, DEFAULT_CACHE);
+    }
+
+    /**
+     * Reads the central directory and opens the zip file for reading
+     *
+     * @param zipFile    zip file to read
+     * @param cacheBytes upper bound of the inflated bytes kept in memory, 0 disables the cache
+     * @throws IOException if the zip file can't be read
+     */
+    public ZipReader(File zipFile, long cacheBytes) throws IOException {
+        this.zipFile = zipFile;
+        this.cacheLimit = cacheBytes;
+        this.maxCachedEntry = cacheBytes / CACHE_FRACTION;
+        this.myZip = new ZipFile(zipFile);
+        try {
+            this.channel = FileChannel.open(zipFile.toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            myZip.close();
+            throw e;
+        }
+        Map<String, ZipArchiveEntry> byName = new HashMap<>();
+        Enumeration<ZipArchiveEntry> zipEntries = myZip.getEntries();
+        while (zipEntries.hasMoreElements()) {
+            ZipArchiveEntry entry = zipEntries.nextElement();
+            //same as ZipFile, the first entry wins when a name is repeated
+            byName.putIfAbsent(entry.getName(), entry);
+        }
+        this.entries = Collections.unmodifiableMap(byName);
+    }
+
+    /**
+     * @return names of all the entries, directories end with a slash
+     */
+    public Set<String> getNames() {
+        return entries.keySet();
+    }
+
+    /**
+     * @param name entry name
+     * @return the entry, null if the zip file doesn't have it
+     */
+    public ZipArchiveEntry getEntry(String name) {
+        return entries.get(name);
+    }
+
+    public boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    /**
+     * Content of a file entry, small entries are served from the cache and big ones are read from
+     * the zip file as the stream is consumed. The stream must be closed
+     *
+     * @param name entry name
+     * @return stream with the uncompressed content
+     * @throws IOException if the entry doesn't exist or can't be read
+     */
+    public InputStream getInputStream(String name) throws IOException {
+        ZipArchiveEntry entry = fileEntry(name);
+        if (isCacheable(entry)) {
+            return new ByteArrayInputStream(cachedBytes(entry));
+        }
+        if (entry.getGeneralPurposeBit().usesEncryption()) {
+            throw new IOException("Encrypted entries are not supported " + name);
+        }
+        switch (entry.getMethod()) {
+            case ZipEntry.STORED:
+                return new BoundedChannelInputStream(channel, entry.getDataOffset(), entry.getCompressedSize());
+            case ZipEntry.DEFLATED:
+                return new PooledInflaterInputStream(
+                        new BoundedChannelInputStream(channel, entry.getDataOffset(), entry.getCompressedSize()));
+            default:
+                return myZip.getInputStream(entry);
+        }
+    }
+
+    /**
+     * Whole content of a file entry, checked against its CRC. Small entries are kept in the cache
+     *
+     * @param name entry name
+     * @return read only buffer with the uncompressed content, every call gets its own position
+     * @throws IOException if the entry doesn't exist, can't be read or is bigger than 2 GB
+     */
+    public ByteBuffer getByteBuffer(String name) throws IOException {
+        ZipArchiveEntry entry = fileEntry(name);
+        byte[] data = isCacheable(entry) ? cachedBytes(entry) : readFully(entry);
+        return ByteBuffer.wrap(data).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return number of requests served from the cache
+     */
+    public long getCacheHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of requests of cacheable entries that had to be read from the zip file
+     */
+    public long getCacheMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return uncompressed bytes held by the cache
+     */
+    public long getCachedBytes() {
+        synchronized (cache) {
+            return cachedBytes;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (cache) {
+            cache.clear();
+            cachedBytes = 0;
+        }
+        try {
+            channel.close();
+        } finally {
+            myZip.close();
+            inflaters.close();
+        }
+    }
+
+    private ZipArchiveEntry fileEntry(String name) throws IOException {
+        ZipArchiveEntry entry = entries.get(name);
+        if (entry == null) {
+            throw new FileNotFoundException(name + " not found in " + zipFile.getName());
+        }
+        if (entry.isDirectory()) {
+            throw new IOException(name + " is a directory");
+        }
+        return entry;
+    }
+
+    private boolean isCacheable(ZipArchiveEntry entry) {
+        return entry.getSize() >= 0 && entry.getSize() <= maxCachedEntry;
+    }
+
+    private byte[] cachedBytes(ZipArchiveEntry entry) throws IOException {
+        synchronized (cache) {
+            byte[] data = cache.get(entry.getName());
+            if (data != null) {
+                hits.increment();
+                return data;
+            }
+        }
+        misses.increment();
+        //two threads missing the same entry both read it, the cache keeps one copy
+        byte[] data = readFully(entry);
+        synchronized (cache) {
+            if (cache.put(entry.getName(), data) == null) {
+                cachedBytes += data.length;
+            }
+            Iterator<byte[]> eldest = cache.values().iterator();
+            while (cachedBytes > cacheLimit && eldest.hasNext()) {
+                cachedBytes -= eldest.next().length;
+                eldest.remove();
+            }
+        }
+        return data;
+    }
+
+    private byte[] readFully(ZipArchiveEntry entry) throws IOException {
+        if (entry.getSize() > Integer.MAX_VALUE - 8 || entry.getCompressedSize() > Integer.MAX_VALUE - 8) {
+            throw new IOException(entry.getName() + " is too big to be read at once");
+        }
+        byte[] data;
+        boolean encrypted = entry.getGeneralPurposeBit().usesEncryption();
+        if (entry.getMethod() == ZipEntry.STORED && !encrypted && entry.getSize() >= 0) {
+            data = new byte[(int) entry.getSize()];
+            readFully(ByteBuffer.wrap(data), entry.getDataOffset(), entry.getName());
+        } else if (entry.getMethod() == ZipEntry.DEFLATED && !encrypted && entry.getSize() >= 0) {
+            data = inflate(entry);
+        } else {
+            //unknown sizes and the methods ZipFile knows about
+            try (InputStream is = getInputStream(entry.getName())) {
+                return IOUtils.toByteArray(is);
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        if (crc.getValue() != entry.getCrc()) {
+            throw new IOException("CRC mismatch for entry " + entry.getName());
+        }
+        return data;
+    }
+
+    private byte[] inflate(ZipArchiveEntry entry) throws IOException {
+        //nowrap inflaters may need an extra dummy byte to finish, it is the last one of the array
+        byte[] compressed = new byte[(int) entry.getCompressedSize() + 1];
+        readFully(ByteBuffer.wrap(compressed, 0, compressed.length - 1), entry.getDataOffset(), entry.getName());
+        byte[] data = new byte[(int) entry.getSize()];
+        Inflater inflater = inflaters.acquire();
+        try {
+            inflater.setInput(compressed);
+            int length = 0;
+            while (!inflater.finished() && length < data.length) {
+                int inflated = inflater.inflate(data, length, data.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+            if (length != data.length || !inflater.finished() && inflater.inflate(new byte[1]) > 0) {
+                throw new IOException("Size mismatch for entry " + entry.getName());
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid deflated data in entry " + entry.getName(), e);
+        } finally {
+            inflaters.release(inflater);
+        }
+        return data;
+    }
+
+    private void readFully(ByteBuffer buffer, long position, String name) throws IOException {
+        //the buffer starts at 0, its position is the number of bytes read
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of zip file in entry " + name);
+            }
+        }
+    }
+
+    /**
+     * Gives its inflater back to the pool when it is closed
+     */
+    private class PooledInflaterInputStream extends InflaterInputStream {
+        private boolean eof = false;
+        private boolean closed = false;
+
+        PooledInflaterInputStream(InputStream in) {
+            super(in, inflaters.acquire(), BUFFER);
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (eof) {
+                throw new EOFException("Unexpected end of deflated entry");
+            }
+            len = in.read(buf, 0, buf.length);
+            if (len == -1) {
+                //same dummy byte as java.util.zip.ZipFile
+                buf[0] = 0;
+                len = 1;
+                eof = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                super.close();
+                inflaters.release(inf);
+            }
+        }
+    }
+}
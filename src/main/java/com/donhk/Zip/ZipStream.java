@@ -0,0 +1,407 @@
+/* Copyright (c) 2017 Frederick Alvarez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+/*
+   DESCRIPTION
+    Class in charge of decompress a zip file read from a non seekable stream
+
+   PRIVATE CLASSES
+    N/A
+
+   NOTES
+    The entries are found through their local file headers the same way
+    ZipArchiveInputStream does. This thread reads and inflates, the filled
+    buffers are written by a WriterPool so disk writes overlap with the
+    decompression. Local headers don't carry the unix mode, it is taken from
+    the central directory at the end of the stream and applied once all the
+    files have been written along with the mtimes of the local headers,
+    symlinks are written as plain files until then. With a work budget
+    the slot of an entry is given back by its writer once it is on disk
+
+   MODIFIED  (MM/DD/YY)
+    donhk     10/18/26 - Creation
+    donhk     10/18/26 - Extractor engine
+    donhk     10/18/26 - Extraction metrics
+    donhk     10/18/26 - Modes, mtimes and symlinks through the metadata stage
+    donhk     10/18/26 - Shared work budget
+    donhk     10/18/26 - Names decoded by EntryNames, EFS flag and Unicode path field
+    donhk     10/18/26 - Budget slots held until the files are written
+ */
+package com.donhk.Zip;
+
+import com.donhk.engine.Extractor;
+import com.donhk.engine.WorkBudget;
+import com.donhk.io.MetadataStage;
+import com.donhk.io.WriterPool;
+import com.donhk.metrics.ExtractionMetrics;
+import org.apache.commons.compress.archivers.zip.UnixStat;
+import org.apache.commons.compress.archivers.zip.ZipUtil;
+import org.apache.commons.io.IOUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * @author donhk
+ */
+public class ZipStream implements Extractor {
+
+    private static final long LOCAL_SIGNATURE = 0x04034b50L;
+    private static final long CENTRAL_SIGNATURE = 0x02014b50L;
+    private static final long DESCRIPTOR_SIGNATURE = 0x08074b50L;
+    private static final long MAGIC_32 = 0xFFFFFFFFL;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int PLATFORM_UNIX = 3;
+    private static final int BUFFER = 1024 * 128;
+    //buffers in flight per writer thread
+    private static final int BUFFERS_PER_WRITER = 4;
+
+    private final PushbackInputStream in;
+    private final File targetPath;
+    private final int threads;
+    private final byte[] input = new byte[BUFFER];
+    private final Inflater inflater = new Inflater(true);
+    //modification time of every file written
+    private final Map<String, Long> written = new HashMap<>();
+    private final Map<String, Integer> unixModes = new HashMap<>();
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+    private long totalFiles = 0;
+    private volatile boolean done = false;
+    private ExtractionMetrics metrics = new ExtractionMetrics();
+    private WorkBudget budget = null;
+    private boolean IS_WINDOWS = System.getProperty("os.name").toLowerCase().contains("windows");
+
+    /**
+     * @param in         zip file content, it doesn't need to support mark or seek
+     * @param targetPath directory where the files will be written
+     * @param threads    number of writer threads
+     */
+    public ZipStream(InputStream in, String targetPath, int threads) {
+        this.in = new PushbackInputStream(in, BUFFER);
+        this.targetPath = new File(targetPath);
+        this.threads = threads;
+    }
+
+    /**
+     * Nothing can be read up front from a stream
+     */
+    @Override
+    public boolean prepare() {
+        return targetPath.isDirectory() || targetPath.mkdirs();
+    }
+
+    @Override
+    public boolean extract() throws IOException, InterruptedException {
+        return unzipStream();
+    }
+
+    @Override
+    public void setMetrics(ExtractionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Every entry holds a slot of the budget until its writer closed the file, the sizes of
+     * entries with a data descriptor are not known and take nothing but the slot
+     */
+    @Override
+    public void setBudget(WorkBudget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Reads the whole stream extracting the entries as they are found
+     *
+     * @return true if the stream was a zip file and was fully read, false otherwise
+     * @throws IOException          if there was an IO error or the stream is not a valid zip file
+     * @throws InterruptedException if the operation was interrupted
+     */
+    public boolean unzipStream() throws IOException, InterruptedException {
+        if (!targetPath.isDirectory() && !targetPath.mkdirs()) {
+            return false;
+        }
+        WriterPool pool = new WriterPool(threads, threads * BUFFERS_PER_WRITER, BUFFER);
+        try {
+            long signature = readSignature();
+            if (signature != LOCAL_SIGNATURE) {
+                //this is not a zip file or it is empty
+                return false;
+            }
+            while (signature == LOCAL_SIGNATURE) {
+                readEntry(pool);
+                signature = readSignature();
+            }
+            if (signature == CENTRAL_SIGNATURE) {
+                readCentralDirectory();
+            }
+        } finally {
+            pool.shutdown();
+            errors.addAll(pool.getErrors());
+            inflater.end();
+        }
+        //whatever is left is the end of central directory, the writer of the pipe should not get a broken pipe
+        while (in.read(input) != -1) {
+            //discarded
+        }
+        restoreMetadata();
+        done = true;
+        return true;
+    }
+
+    /**
+     * @return number of files extracted, -1 until the stream is over
+     */
+    @Override
+    public long getTotalFiles() {
+        return done ? totalFiles : -1;
+    }
+
+    @Override
+    public long getFilesRemaining() {
+        return done ? 0 : -1;
+    }
+
+    /**
+     * @return one message per entry that could not be extracted
+     */
+    @Override
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    private void readEntry(WriterPool pool) throws IOException, InterruptedException {
+        byte[] header = new byte[26];
+        IOUtils.readFully(in, header);
+        int flags = u16(header, 2);
+        int method = u16(header, 4);
+        long time = ZipUtil.dosToJavaTime(u32(header, 6));
+        long crc = u32(header, 10);
+        long compressedSize = u32(header, 14);
+        long size = u32(header, 18);
+        byte[] rawName = new byte[u16(header, 22)];
+        byte[] extra = new byte[u16(header, 24)];
+        IOUtils.readFully(in, rawName);
+        IOUtils.readFully(in, extra);
+        String name = EntryNames.decode(rawName, flags, extra);
+
+        boolean zip64 = false;
+        for (int i = 0; i + 4 <= extra.length; i += 4 + u16(extra, i + 2)) {
+            if (u16(extra, i) == ZIP64_EXTRA_ID) {
+                //the local header always has both sizes when the zip64 field is present
+                zip64 = true;
+                if (i + 20 <= extra.length) {
+                    size = u64(extra, i + 4);
+                    compressedSize = u64(extra, i + 12);
+                }
+                break;
+            }
+        }
+        boolean descriptor = (flags & 8) != 0;
+        if ((flags & 1) != 0) {
+            throw new IOException("Encrypted entries are not supported " + name);
+        }
+
+        File destFile = new File(targetPath, name);
+        if (name.endsWith("/")) {
+            destFile.mkdirs();
+            IOUtils.skipFully(in, compressedSize);
+            return;
+        }
+        if (method != ZipEntry.STORED && method != ZipEntry.DEFLATED) {
+            if (descriptor) {
+                throw new IOException("Unsupported compression method " + method + " for entry " + name);
+            }
+            //the size is known, the entry can be skipped
+            errors.add(name + ": unsupported compression method " + method);
+            IOUtils.skipFully(in, compressedSize);
+            return;
+        }
+        if (method == ZipEntry.STORED && descriptor && compressedSize == 0) {
+            throw new IOException("Stored entries with unknown size can't be streamed " + name);
+        }
+
+        //recreate original structure
+        destFile.getParentFile().mkdirs();
+        long start = System.nanoTime();
+        long granted = budget == null ? 0 : budget.acquire(Math.max(size, compressedSize));
+        boolean queued = false;
+        try {
+            WriterPool.Sink sink = pool.open(destFile);
+            if (method == ZipEntry.STORED) {
+                copy(sink, compressedSize);
+            } else {
+                inflate(sink);
+            }
+            if (descriptor) {
+                byte[] value = new byte[4];
+                IOUtils.readFully(in, value);
+                if (u32(value, 0) == DESCRIPTOR_SIGNATURE) {
+                    IOUtils.readFully(in, value);
+                }
+                crc = u32(value, 0);
+                byte[] sizes = new byte[zip64 ? 16 : 8];
+                IOUtils.readFully(in, sizes);
+                compressedSize = zip64 ? u64(sizes, 0) : u32(sizes, 0);
+                size = zip64 ? u64(sizes, 8) : u32(sizes, 4);
+            }
+            //the latency goes from the header to the file being closed by its writer
+            final long entryCompressedSize = compressedSize;
+            final long entrySize = size;
+            sink.close(crc, () -> metrics.entryDone(name, entryCompressedSize, entrySize, System.nanoTime() - start),
+                    () -> release(granted));
+            queued = true;
+        } finally {
+            if (!queued) {
+                release(granted);
+            }
+        }
+        written.put(name, time);
+        totalFiles++;
+    }
+
+    private void release(long granted) {
+        if (budget != null) {
+            budget.release(granted);
+        }
+    }
+
+    private void copy(WriterPool.Sink sink, long remaining) throws IOException, InterruptedException {
+        while (remaining > 0) {
+            byte[] buffer = sink.buffer();
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) {
+                sink.release(buffer);
+                throw new EOFException("Unexpected end of zip stream");
+            }
+            sink.write(buffer, read);
+            remaining -= read;
+        }
+    }
+
+    private void inflate(WriterPool.Sink sink) throws IOException, InterruptedException {
+        inflater.reset();
+        int lastRead = 0;
+        try {
+            while (!inflater.finished()) {
+                byte[] buffer = sink.buffer();
+                int filled = 0;
+                while (filled < buffer.length && !inflater.finished()) {
+                    if (inflater.needsInput()) {
+                        lastRead = in.read(input);
+                        if (lastRead < 0) {
+                            sink.release(buffer);
+                            throw new EOFException("Unexpected end of zip stream");
+                        }
+                        inflater.setInput(input, 0, lastRead);
+                    }
+                    filled += inflater.inflate(buffer, filled, buffer.length - filled);
+                }
+                if (filled > 0) {
+                    sink.write(buffer, filled);
+                } else {
+                    sink.release(buffer);
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt deflated data", e);
+        }
+        //the inflater might have been fed with bytes of the next entry
+        int remaining = inflater.getRemaining();
+        if (remaining > 0) {
+            in.unread(input, lastRead - remaining, remaining);
+        }
+    }
+
+    /**
+     * Collects the unix mode of every entry, only entries created on unix have one
+     */
+    private void readCentralDirectory() throws IOException {
+        byte[] header = new byte[42];
+        long signature = CENTRAL_SIGNATURE;
+        while (signature == CENTRAL_SIGNATURE) {
+            IOUtils.readFully(in, header);
+            int platform = u16(header, 0) >> 8;
+            byte[] rawName = new byte[u16(header, 24)];
+            byte[] extra = new byte[u16(header, 26)];
+            IOUtils.readFully(in, rawName);
+            IOUtils.readFully(in, extra);
+            IOUtils.skipFully(in, u16(header, 28));
+            if (platform == PLATFORM_UNIX) {
+                //keyed the same way as the names of the local headers
+                unixModes.put(EntryNames.decode(rawName, u16(header, 4), extra), (int) (u32(header, 34) >> 16));
+            }
+            signature = readSignature();
+        }
+    }
+
+    private void restoreMetadata() throws InterruptedException {
+        MetadataStage metadata = new MetadataStage(targetPath.toPath(), errors);
+        metadata.setBudget(budget);
+        for (Map.Entry<String, Long> file : written.entrySet()) {
+            String name = file.getKey();
+            int mode = unixModes.getOrDefault(name, 0);
+            if ((mode & UnixStat.FILE_TYPE_FLAG) == UnixStat.LINK_FLAG && !IS_WINDOWS) {
+                File destFile = new File(targetPath, name);
+                try {
+                    String link = new String(Files.readAllBytes(destFile.toPath()), StandardCharsets.UTF_8);
+                    Files.delete(destFile.toPath());
+                    metadata.addSymlink(name, link);
+                } catch (IOException e) {
+                    errors.add(name + ": " + e);
+                }
+            } else {
+                metadata.addFile(name, mode, file.getValue());
+            }
+        }
+        metadata.apply(threads);
+    }
+
+    /**
+     * @return the next signature of the stream or -1 if the stream is over
+     */
+    private long readSignature() throws IOException {
+        byte[] value = new byte[4];
+        if (IOUtils.read(in, value) < 4) {
+            return -1;
+        }
+        return u32(value, 0);
+    }
+
+    private static int u16(byte[] b, int off) {
+        return (b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8;
+    }
+
+    private static long u32(byte[] b, int off) {
+        return (u16(b, off) | (long) u16(b, off + 2) << 16) & MAGIC_32;
+    }
+
+    private static long u64(byte[] b, int off) {
+        return u32(b, off) | u32(b, off + 4) << 32;
+    }
+}
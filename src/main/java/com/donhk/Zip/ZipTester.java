@@ -0,0 +1,203 @@
+/* Copyright (c) 2017 Frederick Alvarez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+/*
+   DESCRIPTION
+    Class in charge of verify the integrity of a zip file without extracting it
+
+   PRIVATE CLASSES
+    N/A
+
+   NOTES
+    Every entry is read on the worker pool and discarded, its CRC32 and size
+    are compared with the central directory. Each worker reuses the same
+    buffers for all its entries and nothing is written to disk
+
+   MODIFIED  (MM/DD/YY)
+    donhk     10/18/26 - Creation
+    donhk     10/18/26 - Bounded dispatcher instead of one job per entry
+ */
+package com.donhk.Zip;
+
+import com.google.common.collect.Iterators;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+/**
+ * @author donhk
+ */
+public class ZipTester {
+
+    private static final int BUFFER = 1024 * 128;
+
+    private final File zipFile;
+    private final int threads;
+    private ZipFile myZip;
+    private FileChannel zipChannel;
+    private long totalFiles = 0;
+    private final List<String> corruptEntries = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicLong bytesTested = new AtomicLong();
+    private final ThreadLocal<byte[]> heapBuffer = ThreadLocal.withInitial(() -> new byte[BUFFER]);
+    private final ThreadLocal<ByteBuffer> directBuffer = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER));
+    private final ThreadLocal<CRC32> checksum = ThreadLocal.withInitial(CRC32::new);
+    private long elapsedMillis = 0;
+
+    public ZipTester(String zipFile, int threads) {
+        this.zipFile = new File(zipFile);
+        this.threads = threads;
+    }
+
+    /**
+     * Reads the central directory of the zip file
+     *
+     * @return true if the file is a zip file, false otherwise
+     * @throws IOException if the central directory could not be read
+     */
+    public boolean prepare() throws IOException {
+        if (SplitChannel.segments(zipFile).size() > 1) {
+            System.err.println(zipFile.getName() + " is part of a split zip file, it can't be tested");
+            return false;
+        }
+        if (!Zip.validateZipFile(zipFile)) {
+            return false;
+        }
+        System.out.println("Reading zip file " + zipFile.getAbsolutePath());
+        myZip = new ZipFile(zipFile);
+        zipChannel = FileChannel.open(zipFile.toPath(), StandardOpenOption.READ);
+        Enumeration<ZipArchiveEntry> entries = myZip.getEntries();
+        while (entries.hasMoreElements()) {
+            ZipArchiveEntry entry = entries.nextElement();
+            if (!entry.isDirectory()) {
+                totalFiles++;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads every entry on the worker pool and checks its CRC and size
+     *
+     * @return true if all the entries are fine, false otherwise
+     * @throws IOException          if the zip file could not be closed
+     * @throws InterruptedException if the operation was interrupted
+     */
+    public boolean test() throws IOException, InterruptedException {
+        long a = System.currentTimeMillis();
+        BoundedDispatcher<ZipArchiveEntry> dispatcher = new BoundedDispatcher<>(threads, ZipTester::sizeOf, this::testEntry);
+        try {
+            dispatcher.dispatch(() -> Iterators.filter(Iterators.forEnumeration(myZip.getEntries()), e -> !e.isDirectory()));
+        } finally {
+            zipChannel.close();
+            myZip.close();
+        }
+        elapsedMillis = System.currentTimeMillis() - a;
+        return corruptEntries.isEmpty();
+    }
+
+    /**
+     * @return total files that will be tested
+     */
+    public long getTotalFiles() {
+        return totalFiles;
+    }
+
+    /**
+     * @return one message per entry that failed the test
+     */
+    public List<String> getCorruptEntries() {
+        return corruptEntries;
+    }
+
+    /**
+     * @return uncompressed MB per second of the last test
+     */
+    public double getThroughput() {
+        return elapsedMillis == 0 ? 0 : (bytesTested.get() / (1024.0 * 1024.0)) / (elapsedMillis / 1000.0);
+    }
+
+    private static long sizeOf(ZipArchiveEntry entry) {
+        return Math.max(entry.getSize(), entry.getCompressedSize());
+    }
+
+    /**
+     * Reads an entry and compares it with the central directory, called by the workers of the dispatcher
+     */
+    private void testEntry(ZipArchiveEntry entry) {
+        CRC32 crc = checksum.get();
+        crc.reset();
+        long size = 0;
+        try {
+            if (entry.getMethod() == ZipEntry.STORED && !entry.getGeneralPurposeBit().usesEncryption()) {
+                //stored data goes straight from the page cache to the CRC
+                ByteBuffer buffer = directBuffer.get();
+                long position = entry.getDataOffset();
+                long remaining = entry.getCompressedSize();
+                while (remaining > 0) {
+                    buffer.clear();
+                    if (remaining < buffer.capacity()) {
+                        buffer.limit((int) remaining);
+                    }
+                    int read = zipChannel.read(buffer, position);
+                    if (read <= 0) {
+                        break;
+                    }
+                    buffer.flip();
+                    crc.update(buffer);
+                    position += read;
+                    remaining -= read;
+                    size += read;
+                }
+            } else {
+                byte[] data = heapBuffer.get();
+                try (InputStream is = myZip.getInputStream(entry)) {
+                    int read;
+                    while ((read = is.read(data, 0, data.length)) != -1) {
+                        crc.update(data, 0, read);
+                        size += read;
+                    }
+                }
+            }
+            if (size != entry.getSize()) {
+                corruptEntries.add(entry.getName() + ": size mismatch, expected " + entry.getSize() + " got " + size);
+            } else if (crc.getValue() != entry.getCrc()) {
+                corruptEntries.add(entry.getName() + ": CRC mismatch, expected "
+                        + Long.toHexString(entry.getCrc()) + " got " + Long.toHexString(crc.getValue()));
+            }
+        } catch (Exception e) {
+            corruptEntries.add(entry.getName() + ": " + e);
+        } finally {
+            bytesTested.addAndGet(size);
+        }
+    }
+}
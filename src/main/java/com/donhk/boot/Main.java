@@ -12,10 +12,18 @@ public class Main {
             }
 
             SetupBuilder setupBuilder = new SetupBuilder(cliValidator.getSettings());
-            if (cliValidator.getSettings().isDecompress()) {
-                setupBuilder.decompress();
+            if (cliValidator.getSettings().isTest()) {
+                if (!setupBuilder.test()) {
+                    System.exit(1);
+                }
+            } else if (cliValidator.getSettings().isDecompress()) {
+                if (!setupBuilder.decompress()) {
+                    System.exit(1);
+                }
             } else if (cliValidator.getSettings().isCompress()) {
-                setupBuilder.compress();
+                if (!setupBuilder.compress()) {
+                    System.exit(1);
+                }
             }
 
         } catch (InterruptedException e) {
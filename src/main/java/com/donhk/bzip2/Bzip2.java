@@ -0,0 +1,62 @@
+/* Copyright (c) 2017 Frederick Alvarez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+/*
+   DESCRIPTION
+    Class in charge of decompress bzip2 files that are not tar files
+
+   PRIVATE CLASSES
+    N/A
+
+   NOTES
+    A bzip2 file holds a single file, it is written to the target
+    directory with the name of the bzip2 file without its extension, the
+    same way bunzip2 names it. The blocks are decoded by a pool of threads
+    while the engine thread writes them in order
+
+   MODIFIED  (MM/DD/YY)
+    donhk     10/18/26 - Creation
+    donhk     10/18/26 - Extraction moved to SingleFileExtractor
+ */
+package com.donhk.bzip2;
+
+import com.donhk.engine.SingleFileExtractor;
+import com.donhk.io.ParallelBzip2InputStream;
+
+import java.io.FileInputStream;
+
+/**
+ * @author donhk
+ */
+public class Bzip2 extends SingleFileExtractor {
+
+    /**
+     * @param bzip2File  bzip2 file
+     * @param targetPath directory where the file will be written
+     * @param threads    number of threads decoding blocks
+     */
+    public Bzip2(String bzip2File, String targetPath, int threads) {
+        super(bzip2File, targetPath, threads, "bzip2", new String[]{".bz2", ".bz"},
+                (file, executor) -> new ParallelBzip2InputStream(new FileInputStream(file), executor, threads * 2));
+    }
+}
@@ -0,0 +1,31 @@
+package com.donhk.config;
+
+import java.io.File;
+
+/**
+ * One archive of a batch and the directory where it is extracted
+ */
+public class Archive {
+
+    private final File source;
+    private final File target;
+    private final String fileType;
+
+    Archive(File source, File target, String fileType) {
+        this.source = source;
+        this.target = target;
+        this.fileType = fileType;
+    }
+
+    public File getSource() {
+        return source;
+    }
+
+    public File getTarget() {
+        return target;
+    }
+
+    public String getFileType() {
+        return fileType;
+    }
+}
@@ -1,78 +1,299 @@
 package com.donhk.config;
 
-import com.google.common.collect.ArrayListMultimap;
+import com.donhk.engine.EntryFilter;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Multimap;
 import org.apache.commons.cli.*;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
 
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.util.HashMap;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.regex.PatternSyntaxException;
 
 public class CliValidator {
 
     private String[] args;
     private Settings settings = new Settings();
-    private Multimap<String, Long> allowedFileTypes = ArrayListMultimap.create();
+    //signature of every file type, 0 when the type has none, also used to spot compressed files
+    public static final Multimap<String, Long> FILE_SIGNATURES = ImmutableListMultimap.<String, Long>builder()
+            .put("zip", 0x504B0304L)
+            .put("zip", 0x504B0506L)
+            .put("zip", 0x504B0708L)
+            .put("7z", 0x377ABCAF271CL)
+            .put("tar", 0L) //ustar magic at offset 257
+            .put("tar.gz", 0x1F8BL) //gzip
+            .put("bz2", 0x425A68L)//bzip2
+            .put("tar.bz2", 0x425A68L)//bzip2
+            .put("z", 0x1F9DL)//using Lempel-Ziv-Welch algorithm
+            .put("tar.z", 0x1F9DL)//using Lempel-Ziv-Welch algorithm
+            .put("xz", 0xFD377A585A00L)
+            .put("tar.xz", 0xFD377A585A00L)
+            .put("lzma", 0L)
+            .put("arj", 0L)
+            .build();
+    private Multimap<String, Long> allowedFileTypes = FILE_SIGNATURES;
+    //types with an extraction engine
+    private static final Set<String> EXTRACTABLE_TYPES = ImmutableSet.of("zip", "tar", "tar.gz", "tar.bz2", "bz2", "tar.xz", "xz", "lzma");
+    //types with a compression engine
+    private static final Set<String> CREATABLE_TYPES = ImmutableSet.of("zip", "xz", "tar.gz");
+    //tar files have no signature at the beginning
+    private static final int USTAR_OFFSET = 257;
+    private static final byte[] USTAR_MAGIC = "ustar".getBytes(StandardCharsets.US_ASCII);
 
     public CliValidator(String[] args) {
         this.args = args;
-        allowedFileTypes.put("zip", 0x504B0304L);
-        allowedFileTypes.put("zip", 0x504B0506L);
-        allowedFileTypes.put("zip", 0x504B0708L);
-        allowedFileTypes.put("7z", 0x377ABCAF271CL);
-        allowedFileTypes.put("tar", 0x1F8BL); //gzip
-        allowedFileTypes.put("tar.gz", 0x1F8BL); //gzip
-        allowedFileTypes.put("bz2", 0x425A68L);//bzip2
-        allowedFileTypes.put("z", 0x1F9DL);//using Lempel-Ziv-Welch algorithm
-        allowedFileTypes.put("tar.z", 0x1F9DL);//using Lempel-Ziv-Welch algorithm
-        allowedFileTypes.put("XZ", 0L);
-        allowedFileTypes.put("lzma", 0L);
-        allowedFileTypes.put("arj", 0L);
     }
 
     private boolean isFileAllowed(File file) {
-        RandomAccessFile raf = null;
-        try {
-            //all zip files must start with the above signature
-            //if they are valid zip files
-            raf = new RandomAccessFile(file, "r");
-            long firsBytes = raf.readInt();
-            for (String fileType : allowedFileTypes.keySet()) {
-                //review the known signatures
-                for (long sign : allowedFileTypes.get(fileType)) {
-                    //is this a known file?
-                    if (sign == firsBytes) {
-                        settings.setFileType(fileType);
-                        return true;
-                    }
+        byte[] header = new byte[USTAR_OFFSET + USTAR_MAGIC.length];
+        int length;
+        try (InputStream is = new FileInputStream(file)) {
+            length = IOUtils.read(is, header);
+        } catch (IOException e) {
+            return false;
+        }
+        //first 8 bytes, big endian, the missing ones of short files are 0
+        long firstBytes = 0;
+        for (int i = 0; i < 8; i++) {
+            firstBytes = firstBytes << 8 | (header[i] & 0xFF);
+        }
+        String extensionType = getExtensionType(file);
+        String signatureType = null;
+        for (Map.Entry<String, Long> entry : allowedFileTypes.entries()) {
+            long sign = entry.getValue();
+            //0 means the type has no signature
+            if (sign == 0) {
+                continue;
+            }
+            //only the bytes of the signature are compared
+            int signLength = (64 - Long.numberOfLeadingZeros(sign) + 7) / 8;
+            if (firstBytes >>> (8 * (8 - signLength)) == sign) {
+                //types sharing a signature are told apart by the extension
+                if (signatureType == null || entry.getKey().equals(extensionType)) {
+                    signatureType = entry.getKey();
                 }
             }
-            //if we reach this point we know that we can't determine
-            //the file type with the file signature, let's use the manual
-            //fashion
-            String fileType = FilenameUtils.getExtension(file.getAbsolutePath());
-            //is this file type supported?
-            if (allowedFileTypes.containsKey(fileType)) {
-                settings.setFileType(fileType);
-                return true;
-            } else {
-                //we don't support this extension
-                return false;
+        }
+        if (signatureType == null && length == header.length
+                && Arrays.equals(USTAR_MAGIC, Arrays.copyOfRange(header, USTAR_OFFSET, header.length))) {
+            signatureType = "tar";
+        }
+        if (signatureType != null) {
+            settings.setFileType(signatureType);
+            return true;
+        }
+        //if we reach this point we know that we can't determine
+        //the file type with the file signature, let's use the manual
+        //fashion
+        if (allowedFileTypes.containsKey(extensionType)) {
+            settings.setFileType(extensionType);
+            return true;
+        }
+        //we don't support this extension
+        return false;
+    }
+
+    /**
+     * @return extension of the file in lower case, compound tar extensions are kept whole
+     */
+    private static String getExtensionType(File file) {
+        String name = file.getName().toLowerCase();
+        if (name.endsWith(".tar.gz") || name.endsWith(".tgz")) {
+            return "tar.gz";
+        }
+        if (name.endsWith(".tar.bz2") || name.endsWith(".tbz2") || name.endsWith(".tbz")) {
+            return "tar.bz2";
+        }
+        if (name.endsWith(".tar.xz") || name.endsWith(".txz")) {
+            return "tar.xz";
+        }
+        if (name.endsWith(".tar.z")) {
+            return "tar.z";
+        }
+        //segments of a split zip file, name.z01, name.z02...
+        if (name.matches(".*\\.z[0-9]{2,}")) {
+            return "zip";
+        }
+        return FilenameUtils.getExtension(name);
+    }
+
+    /**
+     * Used for files that will be created, only zip, xz and tar.gz files can be created so far
+     */
+    private boolean isExtensionAllowed(File file) {
+        String fileType = getExtensionType(file);
+        if (!CREATABLE_TYPES.contains(fileType)) {
+            return false;
+        }
+        settings.setFileType(fileType);
+        return true;
+    }
+
+    private boolean parseThreads(CommandLine cmd) {
+        if (!cmd.hasOption("j")) {
+            return true;
+        }
+        int threads;
+        try {
+            threads = Integer.parseInt(cmd.getOptionValue("j"));
+        } catch (NumberFormatException e) {
+            threads = 0;
+        }
+        if (threads < 1) {
+            System.err.println("Invalid number of threads " + cmd.getOptionValue("j"));
+            return false;
+        }
+        settings.setThreads(threads);
+        return true;
+    }
+
+    private boolean parseFilter(CommandLine cmd) {
+        EntryFilter filter = new EntryFilter();
+        try {
+            for (String glob : values(cmd, "include")) {
+                filter.addInclude(glob);
+            }
+            for (String glob : values(cmd, "exclude")) {
+                filter.addExclude(glob);
             }
-        } catch (Exception e) {
+            for (String regex : values(cmd, "regex-include")) {
+                filter.addIncludeRegex(regex);
+            }
+            for (String regex : values(cmd, "regex-exclude")) {
+                filter.addExcludeRegex(regex);
+            }
+        } catch (PatternSyntaxException e) {
+            System.err.println("Invalid filter " + e.getPattern());
+            return false;
+        }
+        settings.setFilter(filter);
+        return true;
+    }
+
+    /**
+     * @return the value of the option in bytes, its default if it is missing or -1 if it is not a valid number of MB
+     */
+    private static int megabytes(CommandLine cmd, String option, int defaultValue) {
+        if (!cmd.hasOption(option)) {
+            return defaultValue;
+        }
+        int megabytes;
+        try {
+            megabytes = Integer.parseInt(cmd.getOptionValue(option));
+        } catch (NumberFormatException e) {
+            megabytes = 0;
+        }
+        //blocks are held in arrays
+        if (megabytes < 1 || megabytes > 1024) {
+            return -1;
+        }
+        return megabytes * 1024 * 1024;
+    }
+
+    private static String[] values(CommandLine cmd, String option) {
+        String[] values = cmd.getOptionValues(option);
+        return values == null ? new String[0] : values;
+    }
+
+    /**
+     * Options of the extraction that need no validation
+     */
+    private void setExtractOptions(CommandLine cmd) {
+        settings.setIndex(cmd.hasOption("index"));
+        settings.setVerify(cmd.hasOption("v"));
+        settings.setMapped(cmd.hasOption("m"));
+        settings.setSync(cmd.hasOption("s"));
+        settings.setDeleteExtraneous(cmd.hasOption("s") && cmd.hasOption("delete"));
+        settings.setMetricsFile(cmd.getOptionValue("metrics"));
+        settings.setJmx(cmd.hasOption("jmx"));
+        settings.setResume(cmd.hasOption("resume"));
+    }
+
+    /**
+     * Collects the archives of the -i/-o pairs and of the batch file, every one of them
+     * must be readable and of a type that can be extracted
+     */
+    private boolean parseBatch(CommandLine cmd) {
+        String[] inputs = values(cmd, "i");
+        String[] outputs = values(cmd, "o");
+        if (inputs.length != outputs.length) {
+            System.err.println("Every input file needs its own output dir");
             return false;
-        } finally {
-            if (raf != null) {
-                try {
-                    raf.close();
-                } catch (IOException e) {
-                    //ignored
+        }
+        List<String[]> pairs = new ArrayList<>();
+        for (int i = 0; i < inputs.length; i++) {
+            pairs.add(new String[]{inputs[i], outputs[i]});
+        }
+        if (cmd.hasOption("batch")) {
+            List<String> lines;
+            try {
+                lines = Files.readAllLines(new File(cmd.getOptionValue("batch")).toPath(), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                System.err.println("Can't read the batch file " + cmd.getOptionValue("batch"));
+                return false;
+            }
+            for (int i = 0; i < lines.size(); i++) {
+                String line = lines.get(i).trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] pair = line.contains("\t") ? line.split("\t+") : line.split("\\s+");
+                if (pair.length != 2) {
+                    System.err.println("Invalid line " + (i + 1) + " of the batch file, expected: input output");
+                    return false;
                 }
+                pairs.add(pair);
+            }
+        }
+        List<Archive> archives = new ArrayList<>();
+        Set<String> targets = new HashSet<>();
+        for (String[] pair : pairs) {
+            File source = new File(pair[0]);
+            File target = new File(pair[1]);
+            if (pair[0].equals("-")) {
+                System.err.println("The standard input can't be read in a batch");
+                return false;
+            }
+            if (!source.canRead()) {
+                System.err.println("Can't read input file " + source.getPath());
+                return false;
+            }
+            if (!target.isDirectory() && !target.mkdirs()) {
+                System.err.println("Can't create output dir " + target.getPath());
+                return false;
+            }
+            if (!isFileAllowed(source) || !EXTRACTABLE_TYPES.contains(settings.getFileType())) {
+                System.err.println("This file type can't be extracted " + source.getPath());
+                return false;
+            }
+            if (cmd.hasOption("index") && !settings.getFileType().equals("zip")) {
+                System.err.println("--index only works with zip files " + source.getPath());
+                return false;
+            }
+            if (cmd.hasOption("resume") && !settings.getFileType().equals("zip")) {
+                System.err.println("--resume only works with zip files " + source.getPath());
+                return false;
+            }
+            //two archives syncing the same dir would overwrite the manifest of each other
+            if (!targets.add(target.getAbsoluteFile().toPath().normalize().toString()) && cmd.hasOption("s")) {
+                System.err.println("--sync needs a different output dir per archive " + target.getPath());
+                return false;
             }
+            archives.add(new Archive(source, target, settings.getFileType()));
+        }
+        if (archives.isEmpty()) {
+            System.err.println("The batch has no archives");
+            return false;
         }
+        settings.setBatch(archives);
+        return true;
     }
 
     public boolean validate() {
@@ -83,16 +304,59 @@ public class CliValidator {
         Options compressOpt = new Options();
         Options helpOpt = new Options();
 
-        Option input = Option.builder("i").longOpt("input").required(false).hasArg(true).desc("Path to file that will be decompressed").build();
+        Option input = Option.builder("i").longOpt("input").required(false).hasArg(true).desc("Path to file that will be decompressed, - to read it from stdin").build();
         Option output = Option.builder("o").longOpt("output").required(false).hasArg(true).desc("Output directory").build();
         Option create = Option.builder("c").longOpt("create").required(false).hasArg(true).desc("Path to file that will be created").build();
         Option target = Option.builder("t").longOpt("target").required(false).hasArg(true).desc("Target file/directory that will be compressed").build();
+        Option threads = Option.builder("j").longOpt("threads").required(false).hasArg(true).desc("Number of worker threads, defaults to the number of cores").build();
+        Option level = Option.builder("l").longOpt("level").required(false).hasArg(true).desc("Compression level from 0 (store) to 9").build();
+        Option verify = Option.builder("v").longOpt("verify").required(false).desc("Check the CRC of stored entries, they are copied without it otherwise").build();
+        Option mapped = Option.builder("m").longOpt("mapped").required(false).desc("Read the central directory from a memory map, for archives with millions of entries").build();
+        Option sync = Option.builder("s").longOpt("sync").required(false).desc("Only write the files that are missing or changed on the output directory").build();
+        Option delete = Option.builder().longOpt("delete").required(false).desc("With --sync, delete the files of the output directory that are not in the zip file").build();
+        Option test = Option.builder("T").longOpt("test").required(false).desc("Check the CRC and size of every entry without extracting them, -o is not needed").build();
+        Option metrics = Option.builder().longOpt("metrics").required(false).hasArg(true).desc("Write a JSON summary of the extraction to this file, - for stdout").build();
+        Option jmx = Option.builder().longOpt("jmx").required(false).desc("Publish the extraction counters as the com.donhk:type=Extraction MXBean").build();
+        Option include = Option.builder().longOpt("include").required(false).hasArg(true).desc("Only extract the entries matching this glob, ** crosses directories, can be repeated").build();
+        Option exclude = Option.builder().longOpt("exclude").required(false).hasArg(true).desc("Don't extract the entries matching this glob, can be repeated").build();
+        Option includeRegex = Option.builder().longOpt("regex-include").required(false).hasArg(true).desc("Only extract the entries with a match of this regular expression, can be repeated").build();
+        Option excludeRegex = Option.builder().longOpt("regex-exclude").required(false).hasArg(true).desc("Don't extract the entries with a match of this regular expression, can be repeated").build();
+        Option index = Option.builder().longOpt("index").required(false).desc("Keep a sorted index of the zip file entries next to it (file.zip.idx) and extract from it").build();
+        Option batch = Option.builder().longOpt("batch").required(false).hasArg(true).desc("File with one input and output dir per line, tab separated if the paths have spaces, extracted along with the -i/-o pairs").build();
+        Option maxInFlight = Option.builder().longOpt("max-in-flight").required(false).hasArg(true).desc("With several archives, MB of entries extracted at once across all of them, 256 by default").build();
+        Option resume = Option.builder().longOpt("resume").required(false).desc("Skip the entries a previous extraction into the same output directory finished, the half written ones are extracted again").build();
+        Option minSavings = Option.builder().longOpt("min-savings").required(false).hasArg(true).desc("Store the files deflate would shrink less than this ratio, 0.05 by default").build();
+        Option update = Option.builder("u").longOpt("update").required(false).desc("Update the zip file if it exists, the entries of the files that didn't change are copied as they are").build();
+        Option blockSize = Option.builder().longOpt("block-size").required(false).hasArg(true).desc("MB of the file each thread compresses at once when creating xz files, 24 by default").build();
+        Option maxDict = Option.builder().longOpt("max-dict").required(false).hasArg(true).desc("Biggest dictionary in MB of each thread when creating xz files, 64 by default").build();
         Option help = Option.builder("h").longOpt("help").required(false).desc("Shows this message").build();
 
         decompressOpt.addOption(input);
         decompressOpt.addOption(output);
+        decompressOpt.addOption(threads);
+        decompressOpt.addOption(verify);
+        decompressOpt.addOption(mapped);
+        decompressOpt.addOption(sync);
+        decompressOpt.addOption(delete);
+        decompressOpt.addOption(test);
+        decompressOpt.addOption(metrics);
+        decompressOpt.addOption(jmx);
+        decompressOpt.addOption(include);
+        decompressOpt.addOption(exclude);
+        decompressOpt.addOption(includeRegex);
+        decompressOpt.addOption(excludeRegex);
+        decompressOpt.addOption(index);
+        decompressOpt.addOption(batch);
+        decompressOpt.addOption(maxInFlight);
+        decompressOpt.addOption(resume);
         compressOpt.addOption(create);
         compressOpt.addOption(target);
+        compressOpt.addOption(threads);
+        compressOpt.addOption(level);
+        compressOpt.addOption(minSavings);
+        compressOpt.addOption(update);
+        compressOpt.addOption(blockSize);
+        compressOpt.addOption(maxDict);
         helpOpt.addOption(help);
 
 
@@ -112,6 +376,53 @@ public class CliValidator {
             }
 
             cmd = parser.parse(decompressOpt, args, true);
+            if (cmd.hasOption("i") && cmd.hasOption("T")) {
+                compressedFile = new File(cmd.getOptionValue("i"));
+                if (!compressedFile.canRead()) {
+                    System.err.println("Can't read input file " + compressedFile.getPath());
+                    return false;
+                }
+                if (!isFileAllowed(compressedFile) || !settings.getFileType().equals("zip")) {
+                    System.err.println("Only zip files can be tested " + compressedFile.getPath());
+                    return false;
+                }
+                if (!parseThreads(cmd)) {
+                    return false;
+                }
+                System.out.println("Test mode");
+
+                settings.setTest(true);
+                settings.setSource(compressedFile);
+                return true;
+            }
+            if (cmd.hasOption("batch") || values(cmd, "i").length > 1) {
+                if (!parseBatch(cmd) || !parseThreads(cmd) || !parseFilter(cmd)) {
+                    return false;
+                }
+                if (cmd.hasOption("delete") && !settings.getFilter().isEmpty()) {
+                    System.err.println("--delete can't be used with filters");
+                    return false;
+                }
+                if (cmd.hasOption("max-in-flight")) {
+                    long megabytes;
+                    try {
+                        megabytes = Long.parseLong(cmd.getOptionValue("max-in-flight"));
+                    } catch (NumberFormatException e) {
+                        megabytes = 0;
+                    }
+                    if (megabytes < 1) {
+                        System.err.println("Invalid number of MB in flight " + cmd.getOptionValue("max-in-flight"));
+                        return false;
+                    }
+                    settings.setMaxInFlight(megabytes * 1024 * 1024);
+                }
+                setExtractOptions(cmd);
+                System.out.println("Batch decompress mode, " + settings.getBatch().size() + " archives");
+
+                settings.setCompress(false);
+                settings.setDecompress(true);
+                return true;
+            }
             if (cmd.hasOption("i") && cmd.hasOption("o")) {
                 //get argument values
                 String sourceVal = cmd.getOptionValue("i");
@@ -119,7 +430,9 @@ public class CliValidator {
                 //create file objects
                 compressedFile = new File(sourceVal);
                 directoryLocation = new File(targetVal);
-                if (!compressedFile.canRead()) {
+                //- means the zip file comes from the standard input
+                boolean stdin = sourceVal.equals("-");
+                if (!stdin && !compressedFile.canRead()) {
                     System.err.println("Can't read input file " + compressedFile.getPath());
                     return false;
                 }
@@ -128,11 +441,34 @@ public class CliValidator {
                     System.err.println("Can't create output dir " + directoryLocation.getPath());
                     return false;
                 }
-                //review is this file type is allowed
-                if (!isFileAllowed(compressedFile)) {
-                    System.err.println("This file type is not allowed " + directoryLocation.getPath());
+                //review is this file type is allowed, stdin can't be rewound so it is always read as zip
+                if (stdin) {
+                    settings.setFileType("zip");
+                } else if (!isFileAllowed(compressedFile)) {
+                    System.err.println("This file type is not allowed " + compressedFile.getPath());
+                    return false;
+                }
+                settings.setStdin(stdin);
+                if (!parseThreads(cmd) || !parseFilter(cmd)) {
                     return false;
                 }
+                if (stdin && !settings.getFilter().isEmpty()) {
+                    System.err.println("Filters can't be used when the zip file comes from stdin");
+                    return false;
+                }
+                if (cmd.hasOption("delete") && !settings.getFilter().isEmpty()) {
+                    System.err.println("--delete can't be used with filters");
+                    return false;
+                }
+                if (cmd.hasOption("index") && (stdin || !settings.getFileType().equals("zip"))) {
+                    System.err.println("--index only works with zip files");
+                    return false;
+                }
+                if (cmd.hasOption("resume") && (stdin || !settings.getFileType().equals("zip"))) {
+                    System.err.println("--resume only works with zip files");
+                    return false;
+                }
+                setExtractOptions(cmd);
                 System.out.println("Decompress mode");
 
                 settings.setCompress(false);
@@ -149,27 +485,83 @@ public class CliValidator {
                 String targetVal = cmd.getOptionValue("c");
                 String sourceVal = cmd.getOptionValue("t");
                 //create file objects
-                compressedFile = new File(sourceVal);
-                directoryLocation = new File(targetVal);
-                try {
-                    if (!compressedFile.createNewFile()) {
-                        System.err.println("Can't create compressed file" + compressedFile.getPath());
-                        return false;
-                    }
-                } catch (IOException e) {
-                    System.err.println("Can't create compressed file" + compressedFile.getPath());
+                compressedFile = new File(targetVal);
+                directoryLocation = new File(sourceVal);
+                //review is this file type is allowed, the file is empty so only the extension can tell
+                if (!isExtensionAllowed(compressedFile)) {
+                    System.err.println("This file type is not allowed " + compressedFile.getPath());
+                    return false;
+                }
+                boolean xz = settings.getFileType().equals("xz");
+                if (xz && !directoryLocation.isFile()) {
+                    System.err.println("Only a single file can be compressed to xz " + directoryLocation.getPath());
+                    return false;
+                }
+                if (!settings.getFileType().equals("zip") && cmd.hasOption("u")) {
+                    System.err.println("Only zip files can be updated " + compressedFile.getPath());
                     return false;
                 }
-
                 if (!directoryLocation.canRead()) {
                     System.err.println("Can't read the target dir " + directoryLocation.getPath());
                     return false;
                 }
-                //review is this file type is allowed
-                if (!isFileAllowed(compressedFile)) {
-                    System.err.println("This file type is not allowed " + compressedFile.getPath());
+                if (!parseThreads(cmd)) {
                     return false;
                 }
+                if (cmd.hasOption("l")) {
+                    int compressionLevel;
+                    try {
+                        compressionLevel = Integer.parseInt(cmd.getOptionValue("l"));
+                    } catch (NumberFormatException e) {
+                        compressionLevel = -2;
+                    }
+                    if (compressionLevel < 0 || compressionLevel > 9) {
+                        System.err.println("Invalid compression level " + cmd.getOptionValue("l"));
+                        return false;
+                    }
+                    settings.setCompressionLevel(compressionLevel);
+                }
+                if (cmd.hasOption("min-savings")) {
+                    double ratio;
+                    try {
+                        ratio = Double.parseDouble(cmd.getOptionValue("min-savings"));
+                    } catch (NumberFormatException e) {
+                        ratio = -1;
+                    }
+                    if (ratio < 0 || ratio >= 1) {
+                        System.err.println("Invalid minimum savings ratio " + cmd.getOptionValue("min-savings"));
+                        return false;
+                    }
+                    settings.setMinSavings(ratio);
+                }
+                settings.setUpdate(cmd.hasOption("u"));
+                settings.setBlockSize(megabytes(cmd, "block-size", settings.getBlockSize()));
+                if (settings.getBlockSize() < 0) {
+                    System.err.println("Invalid block size " + cmd.getOptionValue("block-size"));
+                    return false;
+                }
+                settings.setMaxDict(megabytes(cmd, "max-dict", settings.getMaxDict()));
+                if (settings.getMaxDict() < 0) {
+                    System.err.println("Invalid dictionary size " + cmd.getOptionValue("max-dict"));
+                    return false;
+                }
+                //every option is valid, only now the compressed file can be created
+                if (cmd.hasOption("u") && compressedFile.exists()) {
+                    if (!compressedFile.canWrite() || !isFileAllowed(compressedFile) || !settings.getFileType().equals("zip")) {
+                        System.err.println("Only zip files can be updated " + compressedFile.getPath());
+                        return false;
+                    }
+                } else {
+                    try {
+                        if (!compressedFile.createNewFile()) {
+                            System.err.println("Can't create compressed file " + compressedFile.getPath());
+                            return false;
+                        }
+                    } catch (IOException e) {
+                        System.err.println("Can't create compressed file " + compressedFile.getPath());
+                        return false;
+                    }
+                }
                 System.out.println("Compress mode");
 
                 settings.setCompress(true);
@@ -1,6 +1,11 @@
 package com.donhk.config;
 
+import com.donhk.engine.EntryFilter;
+
 import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Deflater;
 
 public class Settings {
 
@@ -9,6 +14,25 @@ public class Settings {
     private boolean decompress = false;
     private boolean compress = false;
     private String fileType = null;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private boolean verify = false;
+    private boolean mapped = false;
+    private boolean stdin = false;
+    private boolean sync = false;
+    private boolean deleteExtraneous = false;
+    private boolean test = false;
+    private String metricsFile = null;
+    private boolean jmx = false;
+    private EntryFilter filter = new EntryFilter();
+    private boolean index = false;
+    private double minSavings = 0.05;
+    private boolean update = false;
+    private List<Archive> batch = Collections.emptyList();
+    private long maxInFlight = 256L * 1024 * 1024;
+    private int blockSize = 24 * 1024 * 1024;
+    private int maxDict = 64 * 1024 * 1024;
+    private boolean resume = false;
 
     Settings() {
     }
@@ -40,6 +64,89 @@ public class Settings {
         return fileType;
     }
 
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public boolean isVerify() {
+        return verify;
+    }
+
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    public boolean isStdin() {
+        return stdin;
+    }
+
+    public boolean isSync() {
+        return sync;
+    }
+
+    public boolean isDeleteExtraneous() {
+        return deleteExtraneous;
+    }
+
+    public boolean isTest() {
+        return test;
+    }
+
+    public String getMetricsFile() {
+        return metricsFile;
+    }
+
+    public boolean isJmx() {
+        return jmx;
+    }
+
+    public EntryFilter getFilter() {
+        return filter;
+    }
+
+    public boolean isIndex() {
+        return index;
+    }
+
+    public double getMinSavings() {
+        return minSavings;
+    }
+
+    public boolean isUpdate() {
+        return update;
+    }
+
+    /**
+     * @return true if several archives are extracted in one run
+     */
+    public boolean isBatch() {
+        return !batch.isEmpty();
+    }
+
+    public List<Archive> getBatch() {
+        return batch;
+    }
+
+    public long getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getMaxDict() {
+        return maxDict;
+    }
+
+    public boolean isResume() {
+        return resume;
+    }
+
     public void setSource(File source) {
         this.source = source;
     }
@@ -59,4 +166,80 @@ public class Settings {
     public void setFileType(String fileType) {
         this.fileType = fileType;
     }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    public void setVerify(boolean verify) {
+        this.verify = verify;
+    }
+
+    public void setMapped(boolean mapped) {
+        this.mapped = mapped;
+    }
+
+    public void setStdin(boolean stdin) {
+        this.stdin = stdin;
+    }
+
+    public void setSync(boolean sync) {
+        this.sync = sync;
+    }
+
+    public void setDeleteExtraneous(boolean deleteExtraneous) {
+        this.deleteExtraneous = deleteExtraneous;
+    }
+
+    public void setTest(boolean test) {
+        this.test = test;
+    }
+
+    public void setMetricsFile(String metricsFile) {
+        this.metricsFile = metricsFile;
+    }
+
+    public void setJmx(boolean jmx) {
+        this.jmx = jmx;
+    }
+
+    public void setFilter(EntryFilter filter) {
+        this.filter = filter;
+    }
+
+    public void setIndex(boolean index) {
+        this.index = index;
+    }
+
+    public void setMinSavings(double minSavings) {
+        this.minSavings = minSavings;
+    }
+
+    public void setUpdate(boolean update) {
+        this.update = update;
+    }
+
+    public void setBatch(List<Archive> batch) {
+        this.batch = batch;
+    }
+
+    public void setMaxInFlight(long maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    public void setMaxDict(int maxDict) {
+        this.maxDict = maxDict;
+    }
+
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
 }
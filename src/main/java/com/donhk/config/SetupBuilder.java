@@ -1,10 +1,26 @@
 package com.donhk.config;
 
+import com.donhk.Zip.CompressionPolicy;
+import com.donhk.bzip2.Bzip2;
 import com.donhk.Zip.Zip;
+import com.donhk.Zip.ZipCompressor;
+import com.donhk.Zip.ZipStream;
+import com.donhk.Zip.ZipTester;
+import com.donhk.engine.BatchExtractor;
+import com.donhk.engine.Extractor;
+import com.donhk.metrics.ConsoleProgress;
+import com.donhk.metrics.ExtractionMetrics;
+import com.donhk.tar.Tar;
+import com.donhk.tar.TarCompressor;
+import com.donhk.xz.Xz;
+import com.donhk.xz.XzCompressor;
 
+import javax.management.JMException;
 import java.io.File;
 import java.io.IOException;
-import java.util.Collections;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 
 public class SetupBuilder {
 
@@ -18,72 +34,263 @@ public class SetupBuilder {
         this.target = settings.getTarget();
     }
 
-    public void decompress() throws IOException, InterruptedException {
-        //parameters looks valid
-        switch (settings.getFileType()) {
+    /**
+     * Picks the engine of the file type
+     *
+     * @return the engine, null if the file type can't be extracted
+     */
+    private Extractor createExtractor(String fileType, File source, File target) throws IOException {
+        switch (fileType) {
             case "zip":
-                break;
-            case "7z":
-                break;
+                if (settings.isStdin()) {
+                    return new ZipStream(System.in, target.getCanonicalPath(), settings.getThreads());
+                }
+                Zip jZip = new Zip(source.getCanonicalPath(), target.getCanonicalPath(), settings.getThreads());
+                jZip.setVerifyStored(settings.isVerify());
+                jZip.setMapped(settings.isMapped());
+                jZip.setSync(settings.isSync(), settings.isDeleteExtraneous());
+                jZip.setFilter(settings.getFilter());
+                jZip.setIndex(settings.isIndex());
+                jZip.setResume(settings.isResume());
+                return jZip;
             case "tar":
-                break;
             case "tar.gz":
-                break;
+            case "tar.bz2":
+            case "tar.xz":
+                Tar tar = new Tar(source.getCanonicalPath(), target.getCanonicalPath(), settings.getThreads());
+                tar.setFilter(settings.getFilter());
+                return tar;
             case "bz2":
-                break;
-            case "z":
-                break;
-            case "tar.z":
-                break;
+                return new Bzip2(source.getCanonicalPath(), target.getCanonicalPath(), settings.getThreads());
             case "xz":
-                break;
             case "lzma":
-                break;
-            case "arj":
-                break;
+                return new Xz(source.getCanonicalPath(), target.getCanonicalPath(), settings.getThreads(), fileType.equals("lzma"));
+            default:
+                return null;
         }
-        long a = System.currentTimeMillis();
-        Zip jZip = new Zip(source.getCanonicalPath(), target.getCanonicalPath());
-        if (!jZip.prepare()) {
+    }
+
+    /**
+     * @return true if every file was extracted, false otherwise
+     */
+    public boolean decompress() throws IOException, InterruptedException {
+        if (settings.isBatch()) {
+            return decompressBatch();
+        }
+        //parameters looks valid, pick the engine of the file type
+        Extractor extractor = createExtractor(settings.getFileType(), source, target);
+        if (extractor == null) {
+            System.out.println(settings.getFileType() + " files can't be decompressed yet");
+            return false;
+        }
+        if (!extractor.prepare()) {
             System.out.println("There was a problem reading file contents");
+            return false;
+        }
+        if (extractor.getTotalFiles() >= 0) {
+            System.out.println(extractor.getTotalFiles() + " files will be unzipped");
+        }
+        ExtractionMetrics metrics = new ExtractionMetrics();
+        metrics.addListener(new ConsoleProgress());
+        extractor.setMetrics(metrics);
+        if (settings.isJmx()) {
+            try {
+                metrics.registerMBean();
+            } catch (JMException e) {
+                System.err.println("Can't publish the metrics through JMX " + e);
+            }
+        }
+        metrics.start(extractor.getTotalFiles());
+        try {
+            extractor.extract();
+        } finally {
+            metrics.finish();
+            try {
+                metrics.unregisterMBean();
+            } catch (JMException e) {
+                //the process is about to end
+            }
+        }
+        for (String error : extractor.getErrors()) {
+            System.err.println(error);
         }
-        cPrint(jZip.getTotalFiles() + " files will be unzipped");
+        if (extractor instanceof Zip) {
+            Zip jZip = (Zip) extractor;
+            for (String line : jZip.getUtilizationReport()) {
+                System.out.println(line);
+            }
+            if (settings.isSync()) {
+                System.out.println(jZip.getUpToDateFiles() + " files were up to date, " + jZip.getDeletedFiles() + " deleted");
+            }
+            if (settings.isResume()) {
+                System.out.println(jZip.getResumedFiles() + " files were skipped, the previous extraction finished them");
+            }
+        }
+        for (String line : metrics.getLatencyReport()) {
+            System.out.println(line);
+        }
+        System.out.println(metrics.getEntriesDone() + " files were extracted, " + extractor.getErrors().size() + " errors");
+        System.out.println(String.format("Done in %.1f s, %.1f MB/s", metrics.getElapsedMillis() / 1000.0, metrics.getWriteThroughput()));
+        writeSummary(metrics);
+        return extractor.getErrors().isEmpty();
+    }
 
-        new Thread(() -> {
+    /**
+     * Extracts all the archives of the batch in this process, they share the threads and
+     * the bytes in flight
+     */
+    private boolean decompressBatch() throws IOException, InterruptedException {
+        BatchExtractor batch = new BatchExtractor(settings.getThreads(), settings.getMaxInFlight());
+        for (Archive archive : settings.getBatch()) {
+            batch.add(archive.getSource().getPath(), createExtractor(archive.getFileType(), archive.getSource(), archive.getTarget()),
+                    archive.getSource().length());
+        }
+        System.out.println(settings.getBatch().size() + " archives will be extracted using " + settings.getThreads()
+                + " threads and " + settings.getMaxInFlight() / (1024 * 1024) + " MB in flight");
+        ExtractionMetrics metrics = new ExtractionMetrics();
+        metrics.addListener(new ConsoleProgress());
+        if (settings.isJmx()) {
+            try {
+                metrics.registerMBean();
+            } catch (JMException e) {
+                System.err.println("Can't publish the metrics through JMX " + e);
+            }
+        }
+        //the number of entries is not known until every archive is read
+        metrics.start(-1);
+        boolean extracted;
+        try {
+            extracted = batch.extract(metrics);
+        } finally {
+            metrics.finish();
             try {
-                jZip.unzipFile();
-            } catch (IOException e) {
-                e.printStackTrace();
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+                metrics.unregisterMBean();
+            } catch (JMException e) {
+                //the process is about to end
             }
-        }).start();
-        //show the number of files for a brief time
-        Thread.sleep(3000);
-        cPrint(String.join("", Collections.nCopies(30, " ")));
-        //show progress
-        while (jZip.getFilesRemaining() != 0) {
-            cPrint(String.join("", Collections.nCopies(30, " ")));
-            cPrint(jZip.getFilesRemaining() + "/" + jZip.getTotalFiles());
-            Thread.sleep(30);
-        }
-        cPrint("0/" + jZip.getTotalFiles());
+        }
+        for (String error : batch.getErrors()) {
+            System.err.println(error);
+        }
+        for (String line : metrics.getLatencyReport()) {
+            System.out.println(line);
+        }
+        System.out.println(metrics.getEntriesDone() + " files were extracted, " + batch.getFailedArchives()
+                + " archives failed, " + batch.getErrors().size() + " errors");
+        System.out.println(String.format("Done in %.1f s, %.1f MB/s", metrics.getElapsedMillis() / 1000.0, metrics.getWriteThroughput()));
+        writeSummary(metrics);
+        return extracted;
+    }
+
+    /**
+     * Machine readable summary for whoever launched the extraction
+     */
+    private void writeSummary(ExtractionMetrics metrics) throws IOException {
+        String metricsFile = settings.getMetricsFile();
+        if (metricsFile == null) {
+            return;
+        }
+        if (metricsFile.equals("-")) {
+            System.out.println(metrics.toJson());
+            return;
+        }
+        Files.write(Paths.get(metricsFile), (metrics.toJson() + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Checks every entry of the zip file without writing anything to disk
+     *
+     * @return true if all the entries are fine, false otherwise
+     */
+    public boolean test() throws IOException, InterruptedException {
+        ZipTester tester = new ZipTester(source.getCanonicalPath(), settings.getThreads());
+        if (!tester.prepare()) {
+            System.out.println("There was a problem reading file contents");
+            return false;
+        }
+        System.out.println(tester.getTotalFiles() + " files will be tested");
+        boolean valid = tester.test();
+        for (String corrupt : tester.getCorruptEntries()) {
+            System.err.println(corrupt);
+        }
+        System.out.println(String.format("%d corrupt files, %.1f MB/s", tester.getCorruptEntries().size(), tester.getThroughput()));
+        return valid;
+    }
+
+    /**
+     * Compresses the target tree into the compressed file
+     *
+     * @return true if the compressed file was created, false otherwise
+     */
+    public boolean compress() throws IOException, InterruptedException {
+        if (settings.getFileType().equals("xz")) {
+            return compressXz();
+        }
+        if (settings.getFileType().equals("tar.gz")) {
+            return compressTar();
+        }
+        long a = System.currentTimeMillis();
+        ZipCompressor compressor = new ZipCompressor(source.getCanonicalPath(), target.getCanonicalPath(),
+                settings.getThreads(), settings.getCompressionLevel());
+        compressor.setPolicy(new CompressionPolicy(CliValidator.FILE_SIGNATURES, settings.getCompressionLevel(), settings.getMinSavings()));
+        compressor.setUpdate(settings.isUpdate());
+        if (!compressor.prepare()) {
+            System.out.println("There was a problem reading the target tree");
+            return false;
+        }
+        System.out.println(compressor.getTotalFiles() + " files will be compressed using " + settings.getThreads() + " threads");
+        boolean compressed = compressor.compress();
         long b = System.currentTimeMillis();
         System.out.println();
+        System.out.println(compressor.getStoredFiles() + " files were stored without compression");
+        if (settings.isUpdate()) {
+            System.out.println(compressor.getReusedFiles() + " files were copied from the previous zip file");
+        }
         System.out.println("Done in " + ((b - a) / 1000) + " s");
+        return compressed;
     }
 
-    public void compress() {
+    /**
+     * Compresses a single file to xz, the blocks are compressed in parallel
+     *
+     * @return true if the xz file was created, false otherwise
+     */
+    private boolean compressXz() throws IOException, InterruptedException {
         long a = System.currentTimeMillis();
+        XzCompressor compressor = new XzCompressor(source.getCanonicalPath(), target.getCanonicalPath(),
+                settings.getThreads(), settings.getCompressionLevel());
+        compressor.setBlockSize(settings.getBlockSize());
+        compressor.setMaxDict(settings.getMaxDict());
+        if (!compressor.prepare()) {
+            System.out.println("There was a problem reading the target file");
+            return false;
+        }
+        System.out.println(target.getName() + " will be compressed using " + settings.getThreads() + " threads");
+        boolean compressed = compressor.compress();
         long b = System.currentTimeMillis();
-        System.out.println();
+        System.out.println(compressor.getSize() + " bytes were compressed to " + compressor.getCompressedSize());
         System.out.println("Done in " + ((b - a) / 1000) + " s");
+        return compressed;
     }
 
-
-    private static void cPrint(String input) throws IOException {
-        String line = "\r" + input;
-        System.out.write(line.getBytes());
+    /**
+     * Streams the tree into a tar.gz file, the gzip blocks are deflated in parallel
+     *
+     * @return true if the tar.gz file was created, false otherwise
+     */
+    private boolean compressTar() throws IOException, InterruptedException {
+        long a = System.currentTimeMillis();
+        TarCompressor compressor = new TarCompressor(source.getCanonicalPath(), target.getCanonicalPath(),
+                settings.getThreads(), settings.getCompressionLevel());
+        if (!compressor.prepare()) {
+            System.out.println("There was a problem reading the target tree");
+            return false;
+        }
+        System.out.println(target.getName() + " will be compressed using " + settings.getThreads() + " threads");
+        boolean compressed = compressor.compress();
+        long b = System.currentTimeMillis();
+        System.out.println(compressor.getTotalFiles() + " files, " + compressor.getSize() + " bytes were compressed");
+        System.out.println("Done in " + ((b - a) / 1000) + " s");
+        return compressed;
     }
-
 }
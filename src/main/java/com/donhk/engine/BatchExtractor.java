@@ -0,0 +1,161 @@
+/* Copyright (c) 2017 Frederick Alvarez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+/*
+   DESCRIPTION
+    Extracts several archives in one process under one work budget
+
+   PRIVATE CLASSES
+    Archive
+
+   NOTES
+    The archives are started smallest first by a pool with one runner per
+    thread of the budget, so a huge archive never holds back the small
+    ones queued behind it and the big ones end up running while the rest
+    are done. All of them share the budget, whatever the number of
+    archives running only its slots are extracting entries and only its
+    bytes are in flight, and all of them feed the same metrics. The
+    bzip2 and xz blocks of every archive are decoded by the pool of the
+    budget so the decoders don't grow with the number of archives
+
+   MODIFIED  (MM/DD/YY)
+    donhk     10/18/26 - Creation
+    donhk     10/18/26 - Decoders shared through the budget
+ */
+package com.donhk.engine;
+
+import com.donhk.metrics.ExtractionMetrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author donhk
+ */
+public class BatchExtractor {
+
+    private final int threads;
+    private final WorkBudget budget;
+    private final List<Archive> archives = new ArrayList<>();
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger failedArchives = new AtomicInteger();
+
+    /**
+     * @param threads          entries extracted at once across all the archives
+     * @param maxInFlightBytes sum of the sizes of the entries extracted at once
+     */
+    public BatchExtractor(int threads, long maxInFlightBytes) {
+        this.threads = threads;
+        this.budget = new WorkBudget(threads, maxInFlightBytes);
+    }
+
+    /**
+     * @param name      name used in the errors of the archive
+     * @param extractor engine of the archive, not prepared yet
+     * @param size      size of the archive, the smallest ones are started first
+     */
+    public void add(String name, Extractor extractor, long size) {
+        archives.add(new Archive(name, extractor, size));
+    }
+
+    /**
+     * Prepares and extracts every archive, it blocks until all of them are done
+     *
+     * @param metrics counters shared by all the archives
+     * @return true if every archive was extracted without errors
+     * @throws InterruptedException if the operation was interrupted
+     */
+    public boolean extract(ExtractionMetrics metrics) throws InterruptedException {
+        archives.sort(Comparator.comparingLong(archive -> archive.size));
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, archives.size())));
+        try {
+            //the queue of the pool keeps the order
+            for (Archive archive : archives) {
+                executor.execute(() -> run(archive, metrics));
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } finally {
+            executor.shutdownNow();
+            budget.shutdown();
+        }
+        return failedArchives.get() == 0 && errors.isEmpty();
+    }
+
+    /**
+     * @return one message per file or archive that could not be extracted
+     */
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return number of archives that could not be read or stopped before their end
+     */
+    public int getFailedArchives() {
+        return failedArchives.get();
+    }
+
+    private void run(Archive archive, ExtractionMetrics metrics) {
+        Extractor extractor = archive.extractor;
+        extractor.setMetrics(metrics);
+        extractor.setBudget(budget);
+        try {
+            if (!extractor.prepare()) {
+                failedArchives.incrementAndGet();
+                errors.add(archive.name + ": can't be read");
+                return;
+            }
+            extractor.extract();
+        } catch (IOException | RuntimeException e) {
+            failedArchives.incrementAndGet();
+            errors.add(archive.name + ": " + e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failedArchives.incrementAndGet();
+            errors.add(archive.name + ": interrupted");
+        }
+        for (String error : extractor.getErrors()) {
+            errors.add(archive.name + ": " + error);
+        }
+    }
+
+    private static class Archive {
+        private final String name;
+        private final Extractor extractor;
+        private final long size;
+
+        Archive(String name, Extractor extractor, long size) {
+            this.name = name;
+            this.extractor = extractor;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/* Copyright (c) 2017 Frederick Alvarez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+/*
+   DESCRIPTION
+    Include and exclude rules that select the entries of an archive
+
+   PRIVATE CLASSES
+    N/A
+
+   NOTES
+    Globs are matched against the whole entry name: * and ? stay inside
+    one path segment, ** crosses them, {a,b} are alternatives and [...]
+    is a character class. Regular expressions match anywhere in the name.
+    An entry is taken when there are no includes or one of them matches,
+    and none of the excludes does. The literal part in front of every
+    include glob is exposed so a sorted name table only has to look at
+    the ranges that start with it
+
+   MODIFIED  (MM/DD/YY)
+    donhk     10/18/26 - Creation
+ */
+package com.donhk.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * @author donhk
+ */
+public class EntryFilter {
+
+    private final List<Predicate<String>> includes = new ArrayList<>();
+    private final List<Predicate<String>> excludes = new ArrayList<>();
+    //literal prefix of every include, null once an include has none
+    private List<String> prefixes = new ArrayList<>();
+
+    /**
+     * @param glob entries matching it are extracted
+     */
+    public void addInclude(String glob) {
+        includes.add(wholeName(Pattern.compile(toRegex(glob))));
+        if (prefixes != null) {
+            prefixes.add(literalPrefix(glob));
+        }
+    }
+
+    /**
+     * @param glob entries matching it are not extracted
+     */
+    public void addExclude(String glob) {
+        excludes.add(wholeName(Pattern.compile(toRegex(glob))));
+    }
+
+    /**
+     * @param regex entries with a match anywhere in the name are extracted
+     * @throws java.util.regex.PatternSyntaxException if the expression is not valid
+     */
+    public void addIncludeRegex(String regex) {
+        includes.add(Pattern.compile(regex).asPredicate());
+        prefixes = null;
+    }
+
+    /**
+     * @param regex entries with a match anywhere in the name are not extracted
+     * @throws java.util.regex.PatternSyntaxException if the expression is not valid
+     */
+    public void addExcludeRegex(String regex) {
+        excludes.add(Pattern.compile(regex).asPredicate());
+    }
+
+    /**
+     * @return true if every entry is accepted
+     */
+    public boolean isEmpty() {
+        return includes.isEmpty() && excludes.isEmpty();
+    }
+
+    /**
+     * @param name entry name, the trailing slash of directories is ignored
+     * @return true if the entry must be extracted
+     */
+    public boolean accepts(String name) {
+        if (isEmpty()) {
+            return true;
+        }
+        String path = name.endsWith("/") ? name.substring(0, name.length() - 1) : name;
+        boolean included = includes.isEmpty();
+        for (int i = 0; i < includes.size() && !included; i++) {
+            included = includes.get(i).test(path);
+        }
+        if (!included) {
+            return false;
+        }
+        for (Predicate<String> exclude : excludes) {
+            if (exclude.test(path)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return every accepted name starts with one of these, null if any name might be accepted
+     */
+    public List<String> getPrefixes() {
+        return includes.isEmpty() ? null : prefixes;
+    }
+
+    private static Predicate<String> wholeName(Pattern pattern) {
+        return name -> pattern.matcher(name).matches();
+    }
+
+    private static String literalPrefix(String glob) {
+        int i = 0;
+        while (i < glob.length() && "*?[{\\".indexOf(glob.charAt(i)) < 0) {
+            i++;
+        }
+        return glob.substring(0, i);
+    }
+
+    private static String toRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        boolean inGroup = false;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            switch (c) {
+                case '*':
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                        //**/ also matches no directory at all
+                        if (i + 2 < glob.length() && glob.charAt(i + 2) == '/') {
+                            regex.append("(?:.*/)?");
+                            i += 2;
+                        } else {
+                            regex.append(".*");
+                            i++;
+                        }
+                    } else {
+                        regex.append("[^/]*");
+                    }
+                    break;
+                case '?':
+                    regex.append("[^/]");
+                    break;
+                case '{':
+                    regex.append("(?:");
+                    inGroup = true;
+                    break;
+                case '}':
+                    regex.append(inGroup ? ")" : "\\}");
+                    inGroup = false;
+                    break;
+                case ',':
+                    regex.append(inGroup ? "|" : ",");
+                    break;
+                case '[':
+                    int end = glob.indexOf(']', i + 2);
+                    if (end < 0) {
+                        regex.append("\\[");
+                        break;
+                    }
+                    String set = glob.substring(i + 1, end);
+                    if (set.startsWith("!")) {
+                        set = "^" + set.substring(1);
+                    }
+                    regex.append('[').append(set.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+                    i = end;
+                    break;
+                case '\\':
+                    if (i + 1 < glob.length()) {
+                        appendLiteral(regex, glob.charAt(++i));
+                    }
+                    break;
+                default:
+                    appendLiteral(regex, c);
+            }
+        }
+        return regex.toString();
+    }
+
+    private static void appendLiteral(StringBuilder regex, char c) {
+        if ("\\.[]{}()<>*+-=!?^$|".indexOf(c) >= 0) {
+            regex.append('\\');
+        }
+        regex.append(c);
+    }
+}
@@ -0,0 +1,57 @@
+package com.donhk.engine;
+
+import com.donhk.metrics.ExtractionMetrics;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Decompression engine of one archive format
+ *
+ * @author donhk
+ */
+public interface Extractor {
+
+    /**
+     * Reads whatever the engine needs before the extraction starts
+     *
+     * @return false if the archive can't be extracted
+     * @throws IOException if there was an IO error
+     */
+    boolean prepare() throws IOException;
+
+    /**
+     * @param metrics counters fed by the threads of the engine, it must be set before the extraction
+     */
+    void setMetrics(ExtractionMetrics metrics);
+
+    /**
+     * @param budget limit shared with other extractions, every entry takes its size from it
+     *               while it is extracted, there is no limit by default
+     */
+    void setBudget(WorkBudget budget);
+
+    /**
+     * Extracts the whole archive, it blocks until all the files are written
+     *
+     * @return true if the extraction finished
+     * @throws IOException          if there was an IO error
+     * @throws InterruptedException if the operation was interrupted
+     */
+    boolean extract() throws IOException, InterruptedException;
+
+    /**
+     * @return total files which will be extracted, -1 for streamed formats until the extraction is done
+     */
+    long getTotalFiles();
+
+    /**
+     * @return number of files remaining of being extracted, -1 for streamed formats until the extraction is done
+     */
+    long getFilesRemaining();
+
+    /**
+     * @return one message per file that could not be extracted
+     */
+    List<String> getErrors();
+}
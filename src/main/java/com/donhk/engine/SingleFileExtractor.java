@@ -0,0 +1,196 @@
+/* Copyright (c) 2017 Frederick Alvarez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+/*
+   DESCRIPTION
+    Engine of the compressed formats that hold a single file, like bzip2,
+    xz and lzma when they are not tar files
+
+   PRIVATE CLASSES
+    N/A
+
+   NOTES
+    The file is written to the target directory with the name of the
+    compressed file without its extension, the same way bunzip2 and unxz
+    name it. The format only provides the stream that decodes it, given
+    a pool of threads for the formats decoded by blocks. The file is
+    written under a temporary name and renamed once the stream reached
+    its end, by then the decoder verified its check. With a work budget
+    the blocks are decoded by the pool of the budget shared with the
+    other archives
+
+   MODIFIED  (MM/DD/YY)
+    donhk     10/18/26 - Creation
+    donhk     10/18/26 - Decoders of the budget
+ */
+package com.donhk.engine;
+
+import com.donhk.metrics.ExtractionMetrics;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * @author donhk
+ */
+public class SingleFileExtractor implements Extractor {
+
+    private static final int BUFFER = 1024 * 128;
+
+    /**
+     * Opens the stream that decodes a compressed file
+     */
+    public interface StreamFactory {
+        /**
+         * @param file     compressed file
+         * @param executor threads to decode blocks, null for the serial formats
+         * @return the decoded content of the file
+         * @throws IOException if the file could not be opened
+         */
+        InputStream open(File file, ExecutorService executor) throws IOException;
+    }
+
+    private final File compressedFile;
+    private final File targetPath;
+    private final int threads;
+    private final String format;
+    private final String[] extensions;
+    private final StreamFactory factory;
+    private File destFile;
+    private boolean done = false;
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+    private ExtractionMetrics metrics = new ExtractionMetrics();
+    private WorkBudget budget = null;
+
+    /**
+     * @param compressedFile compressed file
+     * @param targetPath     directory where the file will be written
+     * @param threads        number of threads decoding blocks, 0 if the format is decoded serially
+     * @param format         name of the format for the messages
+     * @param extensions     extensions removed from the name of the compressed file, in lower case
+     * @param factory        opens the decoding stream
+     */
+    protected SingleFileExtractor(String compressedFile, String targetPath, int threads, String format,
+                                  String[] extensions, StreamFactory factory) {
+        this.compressedFile = new File(compressedFile);
+        this.targetPath = new File(targetPath);
+        this.threads = threads;
+        this.format = format;
+        this.extensions = extensions;
+        this.factory = factory;
+    }
+
+    @Override
+    public boolean prepare() throws IOException {
+        if (!compressedFile.canRead()) {
+            return false;
+        }
+        if (!targetPath.isDirectory() && !targetPath.mkdirs()) {
+            return false;
+        }
+        String name = compressedFile.getName();
+        String lower = name.toLowerCase();
+        String stripped = null;
+        for (String extension : extensions) {
+            if (lower.endsWith(extension)) {
+                stripped = name.substring(0, name.length() - extension.length());
+                break;
+            }
+        }
+        destFile = new File(targetPath, stripped == null ? name + ".out" : stripped);
+        System.out.println("Reading " + format + " file " + compressedFile.getAbsolutePath());
+        return true;
+    }
+
+    @Override
+    public void setMetrics(ExtractionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * The whole file is one entry, it holds a slot of the budget until it is written
+     */
+    @Override
+    public void setBudget(WorkBudget budget) {
+        this.budget = budget;
+    }
+
+    @Override
+    public boolean extract() throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        long granted = budget == null ? 0 : budget.acquire(compressedFile.length());
+        ExecutorService executor = null;
+        if (threads > 0) {
+            executor = budget == null ? Executors.newFixedThreadPool(threads) : budget.getDecoders();
+        }
+        File tmp = new File(destFile.getPath() + ".tmp");
+        long written = 0;
+        try (InputStream in = factory.open(compressedFile, executor);
+             OutputStream out = new FileOutputStream(tmp)) {
+            byte[] buffer = new byte[BUFFER];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                written += read;
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            metrics.entryFailed(destFile.getName(), e.toString(), System.nanoTime() - start);
+            throw e;
+        } finally {
+            //the stream cancelled its blocks, a shared pool stays up for the other archives
+            if (executor != null && budget == null) {
+                executor.shutdownNow();
+            }
+            if (budget != null) {
+                budget.release(granted);
+            }
+        }
+        Files.move(tmp.toPath(), destFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        destFile.setLastModified(compressedFile.lastModified());
+        metrics.entryDone(destFile.getName(), compressedFile.length(), written, System.nanoTime() - start);
+        done = true;
+        return true;
+    }
+
+    @Override
+    public long getTotalFiles() {
+        return 1;
+    }
+
+    @Override
+    public long getFilesRemaining() {
+        return done ? 0 : 1;
+    }
+
+    @Override
+    public List<String> getErrors() {
+        return errors;
+    }
+}
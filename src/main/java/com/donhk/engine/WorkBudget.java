@@ -0,0 +1,172 @@
+/* Copyright (c) 2017 Frederick Alvarez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+/*
+   DESCRIPTION
+    Global limit of the entries being extracted at once and of their bytes,
+    and the threads decoding the compressed blocks of every archive
+
+   PRIVATE CLASSES
+    N/A
+
+   NOTES
+    Every engine keeps its own threads, before working on an entry a
+    thread takes one slot and the size of the entry from the budget and
+    gives them back once the entry is on disk, even when its writes are
+    done by another thread, so no matter how many archives run at the same
+    time only the given number of entries are in flight. The stages that
+    create directories and apply metadata take a slot per task too. An
+    entry bigger than the byte limit takes the whole limit. Slots are
+    handed out in arrival order, a big entry waiting for bytes holds back
+    the ones behind it instead of starving. A thread holding a slot never
+    asks for another one, that could deadlock. Decoding takes no slot, the
+    bzip2 and xz blocks of all the archives go to one pool with a thread
+    per slot
+
+   MODIFIED  (MM/DD/YY)
+    donhk     10/18/26 - Creation
+    donhk     10/18/26 - Slots for the directory and metadata stages, shared decoders
+ */
+package com.donhk.engine;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * @author donhk
+ */
+public class WorkBudget {
+
+    private final int slots;
+    private final long maxBytes;
+    private int freeSlots;
+    private long freeBytes;
+    //tickets of the threads waiting, the oldest one is served first
+    private long nextTicket = 0;
+    private long servedTicket = 0;
+    //tickets of the threads interrupted while they waited
+    private final Set<Long> abandonedTickets = new HashSet<>();
+    private ExecutorService decoders = null;
+
+    /**
+     * @param slots    entries that can be extracted at once
+     * @param maxBytes sum of the sizes of the entries that can be extracted at once
+     */
+    public WorkBudget(int slots, long maxBytes) {
+        this.slots = slots;
+        this.freeSlots = slots;
+        this.maxBytes = maxBytes;
+        this.freeBytes = maxBytes;
+    }
+
+    /**
+     * Blocks until there is a free slot and enough bytes
+     *
+     * @param bytes size of the entry
+     * @return the bytes taken from the budget, they must be given to {@link #release(long)}
+     * @throws InterruptedException if the thread was interrupted while waiting, nothing was taken
+     */
+    public synchronized long acquire(long bytes) throws InterruptedException {
+        long amount = Math.min(Math.max(bytes, 0), maxBytes);
+        long ticket = nextTicket++;
+        try {
+            while (ticket != servedTicket || freeSlots == 0 || freeBytes < amount) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            //the ticket is skipped once its turn comes
+            abandoned(ticket);
+            throw e;
+        }
+        servedTicket++;
+        skipAbandoned();
+        freeSlots--;
+        freeBytes -= amount;
+        notifyAll();
+        return amount;
+    }
+
+    /**
+     * @param amount bytes returned by {@link #acquire(long)}
+     */
+    public synchronized void release(long amount) {
+        freeSlots++;
+        freeBytes += amount;
+        notifyAll();
+    }
+
+    /**
+     * Runs a task that takes no bytes while holding a slot, the caller must not hold one
+     *
+     * @param task I/O of a stage that is not an entry
+     * @throws InterruptedException if the thread was interrupted while waiting, the task did not run
+     */
+    public void runInSlot(Runnable task) throws InterruptedException {
+        acquire(0);
+        try {
+            task.run();
+        } finally {
+            release(0);
+        }
+    }
+
+    /**
+     * @return pool shared by the decoders of all the archives, it must not be shut down by them
+     */
+    public synchronized ExecutorService getDecoders() {
+        if (decoders == null) {
+            decoders = Executors.newFixedThreadPool(Math.max(slots, 1));
+        }
+        return decoders;
+    }
+
+    /**
+     * Stops the shared decoders once no archive is being extracted
+     */
+    public synchronized void shutdown() {
+        if (decoders != null) {
+            decoders.shutdownNow();
+        }
+    }
+
+    /**
+     * @return bytes of the entries being extracted
+     */
+    public synchronized long getBytesInFlight() {
+        return maxBytes - freeBytes;
+    }
+
+    private void abandoned(long ticket) {
+        abandonedTickets.add(ticket);
+        skipAbandoned();
+        notifyAll();
+    }
+
+    private void skipAbandoned() {
+        while (abandonedTickets.remove(servedTicket)) {
+            servedTicket++;
+        }
+    }
+}
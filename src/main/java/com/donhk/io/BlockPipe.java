@@ -0,0 +1,168 @@
+package com.donhk.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Bounded pipe between a producer thread that fills blocks from a stream, usually
+ * a decompressor, and a consumer that reads them as an {@link InputStream}.
+ * The blocks are recycled so the memory used is fixed
+ *
+ * @author donhk
+ */
+public class BlockPipe {
+
+    //queued after the last block
+    private static final Block END = new Block(new byte[0]);
+
+    private final BlockingQueue<Block> free;
+    private final BlockingQueue<Block> full;
+    private volatile IOException failure = null;
+    private volatile boolean closed = false;
+
+    /**
+     * @param blocks    number of blocks in flight
+     * @param blockSize size in bytes of every block
+     */
+    public BlockPipe(int blocks, int blockSize) {
+        free = new ArrayBlockingQueue<>(blocks);
+        full = new ArrayBlockingQueue<>(blocks + 1);
+        for (int i = 0; i < blocks; i++) {
+            free.add(new Block(new byte[blockSize]));
+        }
+    }
+
+    /**
+     * Producer side, reads the stream until its end and closes the pipe, any error
+     * is handed to the consumer
+     *
+     * @param in stream to read, it is not closed
+     * @throws InterruptedException if the producer was interrupted
+     */
+    public void transferFrom(InputStream in) throws InterruptedException {
+        try {
+            while (!closed) {
+                Block block = free.take();
+                int filled = 0;
+                int read = 0;
+                while (filled < block.data.length && (read = in.read(block.data, filled, block.data.length - filled)) != -1) {
+                    filled += read;
+                }
+                block.length = filled;
+                if (filled > 0) {
+                    full.put(block);
+                } else {
+                    free.put(block);
+                }
+                if (read == -1) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            full.put(END);
+        }
+    }
+
+    /**
+     * Ends the pipe with an error when the producer could not even open its stream
+     *
+     * @param e error the consumer will get
+     */
+    public void abort(IOException e) {
+        failure = e;
+        full.offer(END);
+    }
+
+    /**
+     * @return consumer side of the pipe, only one thread may read from it
+     */
+    public InputStream getInputStream() {
+        return new BlockInputStream();
+    }
+
+    private static class Block {
+        private final byte[] data;
+        private int length;
+
+        Block(byte[] data) {
+            this.data = data;
+        }
+    }
+
+    private class BlockInputStream extends InputStream {
+        private Block current = null;
+        private int position = 0;
+        private boolean eof = false;
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!nextBlock()) {
+                return -1;
+            }
+            int count = Math.min(len, current.length - position);
+            System.arraycopy(current.data, position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        private boolean nextBlock() throws IOException {
+            if (current != null && position < current.length) {
+                return true;
+            }
+            if (eof) {
+                return false;
+            }
+            if (current != null) {
+                free.add(current);
+                current = null;
+            }
+            Block block;
+            try {
+                block = full.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for data", e);
+            }
+            if (block == END) {
+                eof = true;
+                if (failure != null) {
+                    throw failure;
+                }
+                return false;
+            }
+            current = block;
+            position = 0;
+            return true;
+        }
+
+        @Override
+        public void close() {
+            //lets a blocked producer finish
+            closed = true;
+            if (current != null) {
+                free.add(current);
+                current = null;
+            }
+            Block block;
+            while ((block = full.poll()) != null) {
+                if (block != END) {
+                    free.add(block);
+                }
+            }
+            eof = true;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/* Copyright (c) 2017 Frederick Alvarez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+/*
+   DESCRIPTION
+    CRC32 of two concatenated blocks out of the CRC32 of each block
+
+   PRIVATE CLASSES
+    N/A
+
+   NOTES
+    Port of crc32_combine() from zlib, the CRC of the first block is
+    carried over as many zero bits as the second block has by squaring a
+    GF(2) matrix operator, so the blocks deflated by different threads
+    don't need a second pass over the data to get the CRC of the file
+
+   MODIFIED  (MM/DD/YY)
+    donhk     10/18/26 - Creation
+ */
+package com.donhk.io;
+
+/**
+ * Computes the CRC32 of two concatenated blocks out of the CRC32 of each block,
+ * port of crc32_combine() from zlib
+ *
+ * @author donhk
+ */
+public final class Crc32Combine {
+
+    //CRC32 polynomial, reversed
+    private static final long POLYNOMIAL = 0xEDB88320L;
+
+    private Crc32Combine() {
+    }
+
+    /**
+     * @param crc1 CRC32 of the first block
+     * @param crc2 CRC32 of the second block
+     * @param len2 length in bytes of the second block
+     * @return CRC32 of the first block followed by the second one
+     */
+    public static long combine(long crc1, long crc2, long len2) {
+        if (len2 <= 0) {
+            return crc1;
+        }
+        long[] even = new long[32];
+        long[] odd = new long[32];
+
+        //operator for one zero bit
+        odd[0] = POLYNOMIAL;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        //operator for two and four zero bits
+        square(even, odd);
+        square(odd, even);
+
+        //apply len2 zeros to crc1, the first square puts the operator for one zero byte in even
+        do {
+            square(even, odd);
+            if ((len2 & 1) != 0) {
+                crc1 = times(even, crc1);
+            }
+            len2 >>= 1;
+            if (len2 == 0) {
+                break;
+            }
+            square(odd, even);
+            if ((len2 & 1) != 0) {
+                crc1 = times(odd, crc1);
+            }
+            len2 >>= 1;
+        } while (len2 != 0);
+        return crc1 ^ crc2;
+    }
+
+    private static long times(long[] matrix, long vector) {
+        long sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void square(long[] square, long[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = times(matrix, matrix[n]);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.donhk.io;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Applies unix modes and modification times, the permission set of every one of the 512
+ * possible modes is built once and shared
+ *
+ * @author donhk
+ */
+public final class FileMetadata {
+
+    //bit of every permission, same order as PosixFilePermission
+    private static final PosixFilePermission[] BITS = {
+            PosixFilePermission.OTHERS_EXECUTE, //1
+            PosixFilePermission.OTHERS_WRITE,   //2
+            PosixFilePermission.OTHERS_READ,    //4
+            PosixFilePermission.GROUP_EXECUTE,  //8
+            PosixFilePermission.GROUP_WRITE,    //16
+            PosixFilePermission.GROUP_READ,     //32
+            PosixFilePermission.OWNER_EXECUTE,  //64
+            PosixFilePermission.OWNER_WRITE,    //128
+            PosixFilePermission.OWNER_READ      //256
+    };
+    private static final Set<PosixFilePermission>[] PERMISSIONS = permissionTable();
+
+    private FileMetadata() {
+    }
+
+    /**
+     * @param unixMode unix mode, only the permission bits are used
+     * @return shared and unmodifiable permission set of the mode
+     */
+    public static Set<PosixFilePermission> permissions(int unixMode) {
+        return PERMISSIONS[unixMode & 0777];
+    }
+
+    /**
+     * Sets the mode and the modification time of a file, modes are ignored where the file
+     * system has no posix permissions
+     *
+     * @param path     file or directory, links are followed
+     * @param unixMode unix mode, 0 to leave the permissions as they are
+     * @param time     modification time in milliseconds, -1 to leave it as it is
+     * @throws IOException if the attributes could not be set
+     */
+    public static void apply(Path path, int unixMode, long time) throws IOException {
+        PosixFileAttributeView posix = Files.getFileAttributeView(path, PosixFileAttributeView.class);
+        if (posix != null) {
+            if (unixMode != 0) {
+                posix.setPermissions(permissions(unixMode));
+            }
+            if (time >= 0) {
+                posix.setTimes(FileTime.fromMillis(time), null, null);
+            }
+        } else if (time >= 0) {
+            Files.getFileAttributeView(path, BasicFileAttributeView.class).setTimes(FileTime.fromMillis(time), null, null);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Set<PosixFilePermission>[] permissionTable() {
+        Set<PosixFilePermission>[] table = new Set[512];
+        for (int mode = 0; mode < table.length; mode++) {
+            Set<PosixFilePermission> perms = EnumSet.noneOf(PosixFilePermission.class);
+            for (int bit = 0; bit < BITS.length; bit++) {
+                if ((mode & (1 << bit)) != 0) {
+                    perms.add(BITS[bit]);
+                }
+            }
+            table[mode] = Collections.unmodifiableSet(perms);
+        }
+        return table;
+    }
+}
@@ -0,0 +1,52 @@
+package com.donhk.io;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Inflater;
+
+/**
+ * Reusable raw {@link Inflater}s, creating one per entry allocates native memory that is only
+ * released by the finalizer, with millions of small entries that memory piles up
+ *
+ * @author donhk
+ */
+public class InflaterPool implements AutoCloseable {
+
+    private final BlockingQueue<Inflater> idle;
+
+    /**
+     * @param capacity inflaters kept for reuse, usually the number of threads
+     */
+    public InflaterPool(int capacity) {
+        idle = new ArrayBlockingQueue<>(Math.max(capacity, 1));
+    }
+
+    /**
+     * @return an inflater for raw deflate data, ready to use
+     */
+    public Inflater acquire() {
+        Inflater inflater = idle.poll();
+        return inflater != null ? inflater : new Inflater(true);
+    }
+
+    /**
+     * @param inflater inflater obtained from {@link #acquire()}, it is ended if the pool is full
+     */
+    public void release(Inflater inflater) {
+        inflater.reset();
+        if (!idle.offer(inflater)) {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Frees the native memory of the idle inflaters
+     */
+    @Override
+    public void close() {
+        Inflater inflater;
+        while ((inflater = idle.poll()) != null) {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/* Copyright (c) 2017 Frederick Alvarez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+/*
+   DESCRIPTION
+    Modes, mtimes and symlinks applied once all the files of an archive
+    have been written
+
+   PRIVATE CLASSES
+    Pending
+
+   NOTES
+    The workers only queue what has to be done. The files are grouped by
+    parent directory and every group is applied by one thread, so the
+    lookups of a directory hit a warm dentry cache and threads don't fight
+    over the same inode lock. Symlinks are created after every regular
+    file exists, their order doesn't depend on how the workers ran and no
+    write can go through them. Java has no fchmod/futimes on an open
+    channel so everything is done by path. With a batch size the modes and
+    mtimes of the files are applied by the worker that fills a batch, so
+    the queue stays bounded, only callers whose files are complete and
+    replaced by rename when they are written again can use it. With a
+    work budget every directory of files and the symlinks take a slot,
+    a batch is applied under the slot of the worker that fills it
+
+   MODIFIED  (MM/DD/YY)
+    donhk     10/18/26 - Creation
+    donhk     10/18/26 - Files applied in batches while the workers run
+    donhk     10/18/26 - Work budget slots
+ */
+package com.donhk.io;
+
+import com.donhk.engine.WorkBudget;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author donhk
+ */
+public class MetadataStage {
+
+    private final Path targetPath;
+    private final List<String> errors;
+    private final ConcurrentLinkedQueue<Pending> files = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Pending> symlinks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingFiles = new AtomicInteger();
+    private int batchSize = 0;
+    private WorkBudget budget = null;
+
+    /**
+     * @param targetPath directory the names are relative to
+     * @param errors     receives one message per file that could not be updated, it must be thread safe
+     */
+    public MetadataStage(Path targetPath, List<String> errors) {
+        this.targetPath = targetPath;
+        this.errors = errors;
+    }
+
+    /**
+     * @param name     path relative to the target directory
+     * @param unixMode unix mode, 0 if unknown
+     * @param time     modification time in milliseconds, -1 if unknown
+     */
+    public void addFile(String name, int unixMode, long time) {
+        if (unixMode != 0 || time >= 0) {
+            files.add(new Pending(name, unixMode, time, null));
+            if (batchSize > 0 && pendingFiles.incrementAndGet() >= batchSize) {
+                applyBatch();
+            }
+        }
+    }
+
+    /**
+     * @param batchSize files applied at once by the thread that adds the last one of a batch,
+     *                  0 to apply all of them at the end
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @param budget limit shared with other extractions, the threads of {@link #apply(int)}
+     *               take a slot while they work, null for none
+     */
+    public void setBudget(WorkBudget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * @param name   path of the link relative to the target directory
+     * @param target content of the link
+     */
+    public void addSymlink(String name, String target) {
+        symlinks.add(new Pending(name, 0, -1, target));
+    }
+
+    /**
+     * Applies the modes and mtimes of the files and then creates the symlinks
+     *
+     * @param threads number of threads
+     * @throws InterruptedException if the operation was interrupted
+     */
+    public void apply(int threads) throws InterruptedException {
+        Map<String, List<Pending>> byDirectory = new HashMap<>();
+        for (Pending file : files) {
+            int slash = file.name.lastIndexOf('/');
+            String parent = slash < 0 ? "" : file.name.substring(0, slash);
+            byDirectory.computeIfAbsent(parent, k -> new ArrayList<>()).add(file);
+        }
+        files.clear();
+        pendingFiles.set(0);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.submit(() -> byDirectory.values().parallelStream().forEach(this::applyDirectory)).get();
+        } catch (ExecutionException e) {
+            errors.add(targetPath + ": " + e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        if (budget == null) {
+            createSymlinks();
+        } else {
+            budget.runInSlot(this::createSymlinks);
+        }
+    }
+
+    private void applyDirectory(List<Pending> directory) {
+        if (budget == null) {
+            applyFiles(directory);
+            return;
+        }
+        try {
+            budget.runInSlot(() -> applyFiles(directory));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            errors.add(targetPath + ": interrupted");
+        }
+    }
+
+    /**
+     * Applies up to a batch of files on the calling thread, the other threads keep adding
+     */
+    private void applyBatch() {
+        List<Pending> batch = new ArrayList<>(batchSize);
+        Pending file;
+        while (batch.size() < batchSize && (file = files.poll()) != null) {
+            batch.add(file);
+        }
+        pendingFiles.addAndGet(-batch.size());
+        applyFiles(batch);
+    }
+
+    private void applyFiles(List<Pending> directory) {
+        for (Pending file : directory) {
+            try {
+                FileMetadata.apply(targetPath.resolve(file.name), file.unixMode, file.time);
+            } catch (IOException e) {
+                errors.add(file.name + ": " + e);
+            }
+        }
+    }
+
+    private void createSymlinks() {
+        Pending link;
+        while ((link = symlinks.poll()) != null) {
+            Path path = targetPath.resolve(link.name);
+            try {
+                Files.deleteIfExists(path);
+                Files.createSymbolicLink(path, Paths.get(link.target));
+            } catch (IOException e) {
+                errors.add(link.name + ": " + e);
+            }
+        }
+    }
+
+    private static class Pending {
+        private final String name;
+        private final int unixMode;
+        private final long time;
+        private final String target;
+
+        Pending(String name, int unixMode, long time, String target) {
+            this.name = name;
+            this.unixMode = unixMode;
+            this.time = time;
+            this.target = target;
+        }
+    }
+}
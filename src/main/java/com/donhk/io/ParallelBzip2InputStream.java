@@ -0,0 +1,512 @@
+/* Copyright (c) 2017 Frederick Alvarez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+/*
+   DESCRIPTION
+    Decompresses a bzip2 stream decoding its blocks on several threads,
+    the same way lbzip2 does
+
+   PRIVATE CLASSES
+    Block, BlockJob, Pending
+
+   NOTES
+    Every bzip2 block starts with a 48 bit magic that is not aligned to
+    a byte, the stream ends with another one followed by the combined CRC.
+    The reading thread looks for both magics bit by bit, a table of the
+    byte that must be in the middle of a magic for each of the 8 shifts
+    discards almost every position with one lookup. The bits of a block
+    are wrapped into a stream of their own, header, block, end magic and
+    the CRC of the block as combined CRC, which commons compress decodes
+    on the pool checking the CRC of the block. The blocks are read by the
+    caller in order from a bounded queue of futures, while it waits the
+    next blocks are being decoded. The CRC of every block is combined in
+    order by the caller and checked against the end of each stream,
+    concatenated streams as written by pbzip2 are supported. A magic found
+    by chance inside the compressed data splits a block in two and the
+    first half fails to decode, like lbzip2 it is then merged with the
+    next part and decoded again until it decodes or gets bigger than any
+    block can be. A false end of stream magic is scanned past the same
+    way when no stream header follows it
+
+   MODIFIED  (MM/DD/YY)
+    donhk     10/18/26 - Creation
+    donhk     10/18/26 - Blocks split by a false magic merged and decoded again
+ */
+package com.donhk.io;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * @author donhk
+ */
+public class ParallelBzip2InputStream extends InputStream {
+
+    private static final long BLOCK_MAGIC = 0x314159265359L;
+    private static final long END_MAGIC = 0x177245385090L;
+    private static final long MAGIC_MASK = 0xFFFFFFFFFFFFL;
+    private static final int READ_SIZE = 1024 * 128;
+    //byte found at the third position of the window when a magic starts at each of its 8 first bits
+    private static final boolean[] CANDIDATE = new boolean[256];
+
+    static {
+        for (int shift = 0; shift < 8; shift++) {
+            CANDIDATE[(int) (BLOCK_MAGIC >>> (24 + shift)) & 0xFF] = true;
+            CANDIDATE[(int) (END_MAGIC >>> (24 + shift)) & 0xFF] = true;
+        }
+    }
+
+    private final InputStream in;
+    private final ExecutorService executor;
+    private final int maxInFlight;
+    private final ArrayDeque<Pending> inFlight = new ArrayDeque<>();
+    //compressed bytes from the start of the current block, buf[0] is the byte bufBase of the input
+    private byte[] buf = new byte[READ_SIZE * 2];
+    private int bufLength = 0;
+    private long bufBase = 0;
+    private boolean eof = false;
+    //state of the scanner, block positions are bits of the input
+    private boolean inStream = false;
+    private long streams = 0;
+    private long nextStreamByte = 0;
+    private long blockStart = -1;
+    private int level;
+    private boolean foundEnd = false;
+    private boolean finished = false;
+    //bit of the last end of stream magic, the scan goes on from it if that magic was false
+    private long lastEnd = -1;
+    //CRC of the blocks the caller took from the current stream
+    private long combinedCrc = 0;
+    //decoded block being read by the caller
+    private Block current = new Block(new byte[0], 0);
+    private int position = 0;
+    private boolean closed = false;
+
+    /**
+     * @param in          bzip2 data, it is closed along with this stream
+     * @param executor    pool that decodes the blocks, it is not shut down
+     * @param maxInFlight number of blocks read but not yet consumed, it bounds the memory used
+     */
+    public ParallelBzip2InputStream(InputStream in, ExecutorService executor, int maxInFlight) {
+        this.in = in;
+        this.executor = executor;
+        this.maxInFlight = Math.max(maxInFlight, 1);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        while (position == current.length) {
+            if (!nextBlock()) {
+                return -1;
+            }
+        }
+        int length = Math.min(len, current.length - position);
+        System.arraycopy(current.data, position, b, off, length);
+        position += length;
+        return length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Pending pending : inFlight) {
+            pending.future.cancel(true);
+        }
+        inFlight.clear();
+        in.close();
+    }
+
+    /**
+     * Fills the queue of blocks being decoded and takes the oldest one
+     *
+     * @return false at the end of the data
+     */
+    private boolean nextBlock() throws IOException {
+        while (inFlight.size() < maxInFlight && !finished) {
+            BlockJob job = nextJob();
+            if (job == null) {
+                finished = true;
+            } else {
+                inFlight.add(new Pending(job, executor.submit(job)));
+            }
+        }
+        Pending next = inFlight.poll();
+        if (next == null) {
+            return false;
+        }
+        while (true) {
+            try {
+                current = next.future.get();
+                break;
+            } catch (ExecutionException e) {
+                //the block might have been cut by a magic found by chance inside it
+                BlockJob following = following();
+                if (following == null || next.job.length + following.length > 16L * next.job.level * 100000) {
+                    throw new IOException("Error decoding bzip2 block", e.getCause());
+                }
+                BlockJob merged = next.job.merge(following);
+                next = new Pending(merged, executor.submit(merged));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while decoding bzip2 blocks");
+            }
+        }
+        combinedCrc = (((combinedCrc << 1) | (combinedCrc >>> 31)) & 0xFFFFFFFFL) ^ next.job.crc;
+        if (next.job.endsStream) {
+            if (next.job.streamCrc != combinedCrc) {
+                throw new IOException("bzip2 stream CRC mismatch");
+            }
+            combinedCrc = 0;
+        }
+        position = 0;
+        return true;
+    }
+
+    /**
+     * Takes the part of the input that follows the oldest block, its decoding is cancelled
+     *
+     * @return the part, null if the input has no more parts
+     */
+    private BlockJob following() throws IOException {
+        Pending head = inFlight.poll();
+        if (head != null) {
+            head.future.cancel(true);
+            return head.job;
+        }
+        if (finished) {
+            if (lastEnd < 0) {
+                return null;
+            }
+            //no stream header followed the last end of stream magic, it was data of the block
+            inStream = true;
+            blockStart = lastEnd;
+            lastEnd = -1;
+            finished = false;
+        }
+        try {
+            BlockJob job = nextJob();
+            if (job == null) {
+                finished = true;
+            }
+            return job;
+        } catch (EOFException e) {
+            finished = true;
+            return null;
+        }
+    }
+
+    /**
+     * Finds the bits of the next block
+     *
+     * @return the job that decodes it, null once every stream was read
+     */
+    private BlockJob nextJob() throws IOException {
+        while (true) {
+            if (!inStream) {
+                if (!readHeader()) {
+                    return null;
+                }
+                continue;
+            }
+            long end = findMagic(blockStart + 48);
+            if (end < 0) {
+                throw new EOFException("Unexpected end of bzip2 stream");
+            }
+            long blockCrc = bits(blockStart + 48, 32);
+            int first = (int) ((blockStart >>> 3) - bufBase);
+            int last = (int) (((end + 7) >>> 3) - bufBase);
+            BlockJob job = new BlockJob(Arrays.copyOfRange(buf, first, last), (int) (blockStart & 7),
+                    end - blockStart, level, blockCrc, foundEnd, foundEnd ? bits(end + 48, 32) : 0);
+            if (foundEnd) {
+                inStream = false;
+                nextStreamByte = (end + 80 + 7) >>> 3;
+                lastEnd = end;
+                //kept until a stream header or the end of the input shows the magic was real
+                discard(end >>> 3);
+            } else {
+                blockStart = end;
+                discard(blockStart >>> 3);
+            }
+            return job;
+        }
+    }
+
+    /**
+     * Reads the header of the next stream and the magic that follows it
+     *
+     * @return false if there are no more streams
+     */
+    private boolean readHeader() throws IOException {
+        ensure(nextStreamByte + 4);
+        int available = (int) (bufBase + bufLength - nextStreamByte);
+        int at = (int) (nextStreamByte - bufBase);
+        boolean header = available >= 4 && buf[at] == 'B' && buf[at + 1] == 'Z' && buf[at + 2] == 'h'
+                && buf[at + 3] >= '1' && buf[at + 3] <= '9';
+        if (!header) {
+            if (streams == 0) {
+                throw new IOException("Not a bzip2 stream");
+            }
+            //trailing garbage is ignored the same way bzip2 does
+            return false;
+        }
+        level = buf[at + 3] - '0';
+        streams++;
+        lastEnd = -1;
+        long start = (nextStreamByte + 4) * 8;
+        ensure(nextStreamByte + 4 + 10);
+        long magic = bits(start, 48);
+        if (magic == END_MAGIC) {
+            //empty stream
+            if (bits(start + 48, 32) != 0) {
+                throw new IOException("bzip2 stream CRC mismatch");
+            }
+            nextStreamByte = (start + 80 + 7) >>> 3;
+            discard(nextStreamByte);
+            return true;
+        }
+        if (magic != BLOCK_MAGIC) {
+            throw new IOException("Invalid bzip2 block header");
+        }
+        inStream = true;
+        blockStart = start;
+        return true;
+    }
+
+    /**
+     * @param from first bit where a magic can start
+     * @return bit where the next magic starts, -1 if the input ends before. foundEnd tells which one it is
+     */
+    private long findMagic(long from) throws IOException {
+        long i = from >>> 3;
+        while (true) {
+            if (i + 8 > bufBase + bufLength) {
+                ensure(i + 8 + READ_SIZE);
+                if (i >= bufBase + bufLength) {
+                    return -1;
+                }
+            }
+            int at = (int) (i - bufBase);
+            if (at + 2 < bufLength && CANDIDATE[buf[at + 2] & 0xFF]) {
+                long window = 0;
+                for (int j = 0; j < 8; j++) {
+                    window = window << 8 | (at + j < bufLength ? buf[at + j] & 0xFF : 0);
+                }
+                for (int shift = 0; shift < 8; shift++) {
+                    long bit = i * 8 + shift;
+                    if (bit < from) {
+                        continue;
+                    }
+                    long value = (window >>> (16 - shift)) & MAGIC_MASK;
+                    if (value == BLOCK_MAGIC || value == END_MAGIC) {
+                        foundEnd = value == END_MAGIC;
+                        if (foundEnd) {
+                            //the combined CRC follows
+                            ensure(((bit + 80 + 7) >>> 3));
+                        }
+                        return bit;
+                    }
+                }
+            }
+            i++;
+        }
+    }
+
+    /**
+     * @return count bits of the input starting at the given bit, big endian
+     */
+    private long bits(long bit, int count) throws EOFException {
+        long value = 0;
+        for (int n = 0; n < count; n++, bit++) {
+            int at = (int) ((bit >>> 3) - bufBase);
+            if (at >= bufLength) {
+                throw new EOFException("Unexpected end of bzip2 stream");
+            }
+            value = value << 1 | ((buf[at] >>> (7 - (bit & 7))) & 1);
+        }
+        return value;
+    }
+
+    /**
+     * Reads until the buffer holds the input up to the given byte or the input ends
+     */
+    private void ensure(long endByte) throws IOException {
+        while (!eof && bufBase + bufLength < endByte) {
+            if (bufLength + READ_SIZE > buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+            int read = in.read(buf, bufLength, READ_SIZE);
+            if (read == -1) {
+                eof = true;
+            } else {
+                bufLength += read;
+            }
+        }
+    }
+
+    /**
+     * Drops the bytes before the given one, they belong to blocks already handed to the pool
+     */
+    private void discard(long firstByte) {
+        int drop = (int) Math.min(firstByte - bufBase, bufLength);
+        if (drop <= 0) {
+            return;
+        }
+        System.arraycopy(buf, drop, buf, 0, bufLength - drop);
+        bufLength -= drop;
+        bufBase += drop;
+    }
+
+    private static class Block {
+        private final byte[] data;
+        private final int length;
+
+        Block(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    private static class Pending {
+        private final BlockJob job;
+        private final Future<Block> future;
+
+        Pending(BlockJob job, Future<Block> future) {
+            this.job = job;
+            this.future = future;
+        }
+    }
+
+    private static class BlockJob implements Callable<Block> {
+        private final byte[] data;
+        private final int shift;
+        private final long length;
+        private final int level;
+        private final long crc;
+        private final boolean endsStream;
+        private final long streamCrc;
+
+        /**
+         * @param data       bytes holding the block
+         * @param shift      bit of the first byte where the block starts
+         * @param length     bits of the block
+         * @param level      block size of the stream, 1 to 9
+         * @param crc        CRC of the block
+         * @param endsStream true if an end of stream magic follows the block
+         * @param streamCrc  combined CRC stored after the end of stream magic
+         */
+        BlockJob(byte[] data, int shift, long length, int level, long crc, boolean endsStream, long streamCrc) {
+            this.data = data;
+            this.shift = shift;
+            this.length = length;
+            this.level = level;
+            this.crc = crc;
+            this.endsStream = endsStream;
+            this.streamCrc = streamCrc;
+        }
+
+        /**
+         * @param next part of the input that starts where this one ends
+         * @return a block made of both parts, it ends the way the next one does
+         */
+        BlockJob merge(BlockJob next) {
+            //the byte holding the boundary is the last one of this part and the first one of the next
+            int keep = (int) ((shift + length) >>> 3);
+            byte[] merged = Arrays.copyOf(data, keep + next.data.length);
+            System.arraycopy(next.data, 0, merged, keep, next.data.length);
+            return new BlockJob(merged, shift, length + next.length, level, crc, next.endsStream, next.streamCrc);
+        }
+
+        public Block call() throws IOException {
+            //header, the block aligned to a byte, end magic and CRC
+            byte[] stream = new byte[(int) (4 + (length + 80 + 7) / 8)];
+            stream[0] = 'B';
+            stream[1] = 'Z';
+            stream[2] = 'h';
+            stream[3] = (byte) ('0' + level);
+            int bytes = (int) ((length + 7) / 8);
+            for (int j = 0; j < bytes; j++) {
+                int high = (data[j] & 0xFF) << shift;
+                int low = shift == 0 || j + 1 >= data.length ? 0 : (data[j + 1] & 0xFF) >>> (8 - shift);
+                stream[4 + j] = (byte) (high | low);
+            }
+            long bit = 32 + length;
+            bit = put(stream, bit, END_MAGIC, 48);
+            put(stream, bit, crc, 32);
+            //the block is at most level * 100000 bytes before the initial run length encoding
+            byte[] data = new byte[level * 100000 + 1024];
+            int length = 0;
+            try (InputStream block = new BZip2CompressorInputStream(new ByteArrayInputStream(stream), false)) {
+                int read;
+                while ((read = block.read(data, length, data.length - length)) != -1) {
+                    length += read;
+                    if (length == data.length) {
+                        data = Arrays.copyOf(data, data.length * 2);
+                    }
+                }
+            }
+            return new Block(data, length);
+        }
+
+        /**
+         * Writes the bits over whatever is there, the bytes are zero after the last one
+         */
+        private static long put(byte[] stream, long bit, long value, int count) {
+            for (int n = count - 1; n >= 0; n--, bit++) {
+                int at = (int) (bit >>> 3);
+                int mask = 1 << (7 - (bit & 7));
+                if (((value >>> n) & 1) != 0) {
+                    stream[at] |= mask;
+                } else {
+                    stream[at] &= ~mask;
+                }
+            }
+            return bit;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/* Copyright (c) 2017 Frederick Alvarez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+/*
+   DESCRIPTION
+    Deflates a single stream using several threads, the same way pigz does
+
+   PRIVATE CLASSES
+    BlockJob, Block
+
+   NOTES
+    The input is cut in blocks, every block is deflated on its own thread
+    using the last 32 KB of the previous block as dictionary and ends with
+    a sync flush so the blocks can be concatenated into one raw deflate
+    stream, only the last block is finished. The CRC32 of every block is
+    computed by the same thread and combined in order at the end. The
+    blocks are either pulled from an input stream or pushed through a
+    session, which holds back the last block until it knows it is the last
+
+   MODIFIED  (MM/DD/YY)
+    donhk     10/18/26 - Creation
+    donhk     10/18/26 - Push sessions for streams written on the fly
+ */
+package com.donhk.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * @author donhk
+ */
+public class ParallelDeflater {
+
+    //deflate can't look back further than this
+    private static final int DICTIONARY = 32 * 1024;
+    private static final int OUTPUT_BUFFER = 64 * 1024;
+
+    private final ExecutorService executor;
+    private final int level;
+    private final int blockSize;
+    private final int maxInFlight;
+    private final ThreadLocal<Deflater> deflaters;
+
+    /**
+     * @param executor    pool that deflates the blocks, it is not shut down
+     * @param level       deflate level from 1 to 9, -1 for the default level
+     * @param blockSize   bytes of input per block
+     * @param maxInFlight number of blocks read but not yet written, it bounds the memory used
+     */
+    public ParallelDeflater(ExecutorService executor, int level, int blockSize, int maxInFlight) {
+        this.executor = executor;
+        this.level = level;
+        this.blockSize = Math.max(blockSize, DICTIONARY);
+        this.maxInFlight = Math.max(maxInFlight, 1);
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level, true));
+    }
+
+    /**
+     * Deflates the whole input into a single raw deflate stream
+     *
+     * @param in  data to deflate, it is read until its end but not closed
+     * @param out receives the deflated data in order
+     * @return CRC32 and sizes of the data
+     * @throws IOException          if there was an IO error or a block could not be deflated
+     * @throws InterruptedException if the operation was interrupted
+     */
+    public Result deflate(InputStream in, OutputStream out) throws IOException, InterruptedException {
+        Session session = newSession(out);
+        try {
+            byte[] block;
+            do {
+                block = readBlock(in);
+                session.add(block);
+            } while (block.length == blockSize);
+            return session.finish();
+        } finally {
+            session.cancel();
+        }
+    }
+
+    /**
+     * Starts a raw deflate stream whose blocks are handed one by one
+     *
+     * @param out receives the deflated data in order
+     * @return the session, {@link Session#finish()} must be called once all the blocks were added
+     */
+    public Session newSession(OutputStream out) {
+        return new Session(out);
+    }
+
+    /**
+     * @return bytes of input per block
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    private void write(Future<Block> future, OutputStream out, Result result) throws IOException, InterruptedException {
+        Block block;
+        try {
+            block = future.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Error deflating block", e.getCause());
+        }
+        block.deflated.writeTo(out);
+        result.crc = Crc32Combine.combine(result.crc, block.crc, block.size);
+        result.size += block.size;
+        result.compressedSize += block.deflated.size();
+    }
+
+    private byte[] readBlock(InputStream in) throws IOException {
+        byte[] block = new byte[blockSize];
+        int filled = 0;
+        int read;
+        while (filled < blockSize && (read = in.read(block, filled, blockSize - filled)) != -1) {
+            filled += read;
+        }
+        return filled == blockSize ? block : Arrays.copyOf(block, filled);
+    }
+
+    /**
+     * One raw deflate stream fed block by block, it is used by a single thread
+     */
+    public class Session {
+        private final OutputStream out;
+        private final ArrayDeque<Future<Block>> inFlight = new ArrayDeque<>();
+        private final Result result = new Result();
+        private byte[] dictionary = null;
+        //the last block is only known once the next one arrives or the session is finished
+        private byte[] pending = null;
+
+        private Session(OutputStream out) {
+            this.out = out;
+        }
+
+        /**
+         * Every block but the last one must have exactly the block size of the deflater,
+         * the array is owned by the session from now on
+         *
+         * @param block data to deflate, empty blocks are ignored
+         * @throws IOException          if there was an IO error or a block could not be deflated
+         * @throws InterruptedException if the operation was interrupted
+         */
+        public void add(byte[] block) throws IOException, InterruptedException {
+            if (block.length == 0) {
+                return;
+            }
+            if (pending != null) {
+                if (pending.length != blockSize) {
+                    throw new IllegalStateException("Only the last block can be smaller than " + blockSize);
+                }
+                submit(pending, false);
+            }
+            pending = block;
+        }
+
+        /**
+         * Deflates the last block and waits for all of them to be written
+         *
+         * @return CRC32 and sizes of the data
+         * @throws IOException          if there was an IO error or a block could not be deflated
+         * @throws InterruptedException if the operation was interrupted
+         */
+        public Result finish() throws IOException, InterruptedException {
+            //an empty stream still needs a final block
+            submit(pending == null ? new byte[0] : pending, true);
+            pending = null;
+            while (!inFlight.isEmpty()) {
+                write(inFlight.poll(), out, result);
+            }
+            return result;
+        }
+
+        /**
+         * Drops the blocks not written yet, it does nothing once the session is finished
+         */
+        public void cancel() {
+            for (Future<Block> future : inFlight) {
+                future.cancel(true);
+            }
+            inFlight.clear();
+        }
+
+        private void submit(byte[] block, boolean last) throws IOException, InterruptedException {
+            if (inFlight.size() == maxInFlight) {
+                write(inFlight.poll(), out, result);
+            }
+            inFlight.add(executor.submit(new BlockJob(block, dictionary, last)));
+            if (!last) {
+                dictionary = Arrays.copyOfRange(block, block.length - DICTIONARY, block.length);
+            }
+        }
+    }
+
+    /**
+     * CRC32 and sizes of the deflated data
+     */
+    public static class Result {
+        private long crc = 0;
+        private long size = 0;
+        private long compressedSize = 0;
+
+        public long getCrc() {
+            return crc;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+    }
+
+    private static class Block {
+        private final ByteArrayOutputStream deflated;
+        private final long crc;
+        private final long size;
+
+        Block(ByteArrayOutputStream deflated, long crc, long size) {
+            this.deflated = deflated;
+            this.crc = crc;
+            this.size = size;
+        }
+    }
+
+    private class BlockJob implements Callable<Block> {
+        private final byte[] data;
+        private final byte[] dictionary;
+        private final boolean last;
+
+        BlockJob(byte[] data, byte[] dictionary, boolean last) {
+            this.data = data;
+            this.dictionary = dictionary;
+            this.last = last;
+        }
+
+        public Block call() {
+            Deflater deflater = deflaters.get();
+            deflater.reset();
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(data);
+            ByteArrayOutputStream deflated = new ByteArrayOutputStream(data.length / 2 + 64);
+            byte[] buffer = new byte[OUTPUT_BUFFER];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int length = deflater.deflate(buffer);
+                    deflated.write(buffer, 0, length);
+                }
+            } else {
+                //a sync flush is done once the output buffer is not completely filled
+                int length;
+                do {
+                    length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    deflated.write(buffer, 0, length);
+                } while (length == buffer.length);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, data.length);
+            return new Block(deflated, crc.getValue(), data.length);
+        }
+    }
+}
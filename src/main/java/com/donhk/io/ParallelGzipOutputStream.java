@@ -0,0 +1,141 @@
+/* Copyright (c) 2017 Frederick Alvarez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+/*
+   DESCRIPTION
+    Writes a gzip file deflating its content on several threads
+
+   PRIVATE CLASSES
+    N/A
+
+   NOTES
+    The data written is gathered in blocks of the size of the deflater
+    and handed to a session of it, so the caller only waits when all the
+    blocks in flight are being deflated. The result is a single gzip
+    member like the one of gzip or pigz, its trailer has the CRC32 of the
+    blocks combined in order
+
+   MODIFIED  (MM/DD/YY)
+    donhk     10/18/26 - Creation
+ */
+package com.donhk.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * @author donhk
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+    //magic, deflate, no flags, no mtime, no extra flags, unix
+    private static final byte[] HEADER = {0x1F, (byte) 0x8B, 8, 0, 0, 0, 0, 0, 0, 3};
+
+    private final OutputStream out;
+    private final ParallelDeflater.Session session;
+    private final int blockSize;
+    private byte[] block;
+    private int length = 0;
+    private boolean closed = false;
+
+    /**
+     * @param out      receives the gzip file, it is closed along with this stream
+     * @param deflater deflater of the blocks, its block size and blocks in flight bound the memory used
+     * @throws IOException if the header could not be written
+     */
+    public ParallelGzipOutputStream(OutputStream out, ParallelDeflater deflater) throws IOException {
+        this.out = out;
+        this.session = deflater.newSession(out);
+        this.blockSize = deflater.getBlockSize();
+        this.block = new byte[blockSize];
+        out.write(HEADER);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        while (len > 0) {
+            int copied = Math.min(len, blockSize - length);
+            System.arraycopy(b, off, block, length, copied);
+            length += copied;
+            off += copied;
+            len -= copied;
+            if (length == blockSize) {
+                try {
+                    session.add(block);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while deflating");
+                }
+                //the session owns the full block
+                block = new byte[blockSize];
+                length = 0;
+            }
+        }
+    }
+
+    /**
+     * Deflates the last block and writes the trailer
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            ParallelDeflater.Result result;
+            try {
+                byte[] last = new byte[length];
+                System.arraycopy(block, 0, last, 0, length);
+                session.add(last);
+                result = session.finish();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while deflating");
+            }
+            writeInt(result.getCrc());
+            //size modulo 2^32
+            writeInt(result.getSize());
+            out.flush();
+        } finally {
+            session.cancel();
+            out.close();
+        }
+    }
+
+    private void writeInt(long value) throws IOException {
+        out.write((int) value & 0xFF);
+        out.write((int) (value >>> 8) & 0xFF);
+        out.write((int) (value >>> 16) & 0xFF);
+        out.write((int) (value >>> 24) & 0xFF);
+    }
+}
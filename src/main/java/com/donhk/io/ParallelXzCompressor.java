@@ -0,0 +1,169 @@
+/* Copyright (c) 2017 Frederick Alvarez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+/*
+   DESCRIPTION
+    Compresses a single file to xz using several threads
+
+   PRIVATE CLASSES
+    BlockJob
+
+   NOTES
+    The input is cut in blocks and every block is compressed on its own
+    thread into a complete xz stream, with its own index and CRC64 check.
+    The xz format allows streams to be concatenated, xz and any other
+    decoder read them as one file and the parallel decoder of this package
+    sees one block per stream, so the file can be decoded on several
+    threads too. The dictionary is never bigger than a block, it would be
+    wasted, and is capped so the memory of every thread stays bounded, the
+    encoder needs about ten times the dictionary size
+
+   MODIFIED  (MM/DD/YY)
+    donhk     10/18/26 - Creation
+ */
+package com.donhk.io;
+
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.UnsupportedOptionsException;
+import org.tukaani.xz.XZ;
+import org.tukaani.xz.XZOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * @author donhk
+ */
+public class ParallelXzCompressor {
+
+    private final ExecutorService executor;
+    private final int blockSize;
+    private final int maxInFlight;
+    private final LZMA2Options options;
+
+    /**
+     * @param executor    pool that compresses the blocks, it is not shut down
+     * @param preset      xz preset from 0 to 9
+     * @param blockSize   bytes of input per block
+     * @param maxDict     biggest dictionary a thread can use
+     * @param maxInFlight number of blocks read but not yet written, it bounds the memory used
+     * @throws UnsupportedOptionsException if the preset is not valid
+     */
+    public ParallelXzCompressor(ExecutorService executor, int preset, int blockSize, int maxDict, int maxInFlight)
+            throws UnsupportedOptionsException {
+        this.executor = executor;
+        this.blockSize = Math.max(blockSize, LZMA2Options.DICT_SIZE_MIN);
+        this.maxInFlight = Math.max(maxInFlight, 1);
+        this.options = new LZMA2Options(preset);
+        int dictSize = Math.min(options.getDictSize(), Math.min(this.blockSize, maxDict));
+        options.setDictSize(Math.max(dictSize, LZMA2Options.DICT_SIZE_MIN));
+    }
+
+    /**
+     * @return memory in KB each thread needs to compress a block
+     */
+    public int getEncoderMemoryUsage() {
+        return options.getEncoderMemoryUsage();
+    }
+
+    /**
+     * Compresses the whole input into concatenated xz streams, one per block
+     *
+     * @param in  data to compress, it is read until its end but not closed
+     * @param out receives the compressed data in order
+     * @return bytes read from the input
+     * @throws IOException          if there was an IO error or a block could not be compressed
+     * @throws InterruptedException if the operation was interrupted
+     */
+    public long compress(InputStream in, OutputStream out) throws IOException, InterruptedException {
+        ArrayDeque<Future<ByteArrayOutputStream>> inFlight = new ArrayDeque<>();
+        long size = 0;
+        try {
+            byte[] block = readBlock(in);
+            //an empty input still needs one stream to be a valid xz file
+            inFlight.add(executor.submit(new BlockJob(block)));
+            size += block.length;
+            while (block.length == blockSize) {
+                block = readBlock(in);
+                if (block.length == 0) {
+                    break;
+                }
+                if (inFlight.size() == maxInFlight) {
+                    write(inFlight.poll(), out);
+                }
+                inFlight.add(executor.submit(new BlockJob(block)));
+                size += block.length;
+            }
+            while (!inFlight.isEmpty()) {
+                write(inFlight.poll(), out);
+            }
+        } finally {
+            for (Future<ByteArrayOutputStream> pending : inFlight) {
+                pending.cancel(true);
+            }
+        }
+        return size;
+    }
+
+    private void write(Future<ByteArrayOutputStream> future, OutputStream out) throws IOException, InterruptedException {
+        try {
+            future.get().writeTo(out);
+        } catch (ExecutionException e) {
+            throw new IOException("Error compressing xz block", e.getCause());
+        }
+    }
+
+    private byte[] readBlock(InputStream in) throws IOException {
+        byte[] block = new byte[blockSize];
+        int filled = 0;
+        int read;
+        while (filled < blockSize && (read = in.read(block, filled, blockSize - filled)) != -1) {
+            filled += read;
+        }
+        return filled == blockSize ? block : Arrays.copyOf(block, filled);
+    }
+
+    private class BlockJob implements Callable<ByteArrayOutputStream> {
+        private final byte[] data;
+
+        BlockJob(byte[] data) {
+            this.data = data;
+        }
+
+        public ByteArrayOutputStream call() throws IOException {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 4 + 64);
+            try (XZOutputStream xz = new XZOutputStream(compressed, options, XZ.CHECK_CRC64)) {
+                xz.write(data);
+            }
+            return compressed;
+        }
+    }
+}
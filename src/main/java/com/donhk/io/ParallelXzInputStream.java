@@ -0,0 +1,258 @@
+/* Copyright (c) 2017 Frederick Alvarez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+/*
+   DESCRIPTION
+    Decompresses an xz file decoding its blocks on several threads
+
+   PRIVATE CLASSES
+    BlockJob
+
+   NOTES
+    The index at the end of every xz stream has the position and sizes of
+    its blocks and every block is compressed on its own, so any block can
+    be decoded without the ones before it. A job takes an idle seekable
+    decoder of the file, or opens one, jumps to the block it was given and
+    reads exactly its size, which makes the decoder check the integrity of
+    the block, then gives the decoder back. The decoders belong to the
+    stream, not to the threads of the pool that might be shared, and are
+    closed with it. The caller reads the blocks in order from a queue of
+    futures, the same as the bzip2 one, bounded by the number of blocks
+    and by their uncompressed sizes as the index gives them, the block
+    being read counts too. A file with a single block, like the ones xz
+    writes without -T, can't be split and is decoded by the caller, as
+    well as files with blocks too big to be held in memory
+
+   MODIFIED  (MM/DD/YY)
+    donhk     10/18/26 - Creation
+    donhk     10/18/26 - Bytes in flight bounded, decoders owned by the stream
+ */
+package com.donhk.io;
+
+import org.tukaani.xz.SeekableFileInputStream;
+import org.tukaani.xz.SeekableXZInputStream;
+import org.tukaani.xz.XZInputStream;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * @author donhk
+ */
+public class ParallelXzInputStream extends InputStream {
+
+    //uncompressed bytes of the blocks decoded ahead by default, a bigger block is not held in memory
+    public static final long DEFAULT_MAX_BYTES = 256 * 1024 * 1024;
+    private static final int BUFFER = 1024 * 128;
+
+    private final File file;
+    private final ExecutorService executor;
+    private final int maxInFlight;
+    private final long maxBytes;
+    private final ArrayDeque<Future<byte[]>> inFlight = new ArrayDeque<>();
+    //decoders opened by the jobs, closed along with this stream
+    private final List<SeekableXZInputStream> decoders = Collections.synchronizedList(new ArrayList<>());
+    private final ConcurrentLinkedQueue<SeekableXZInputStream> idle = new ConcurrentLinkedQueue<>();
+    private final int blocks;
+    //uncompressed size of every block
+    private final long[] blockSizes;
+    //bytes of the blocks queued and of the one being read
+    private long bytesInFlight = 0;
+    //single threaded decoder, null when the blocks are decoded by the workers
+    private InputStream serial = null;
+    private int nextBlock = 0;
+    private byte[] current = new byte[0];
+    private int position = 0;
+    //read by the jobs, a decoder opened after the close is not kept
+    private volatile boolean closed = false;
+
+    /**
+     * Reads the index of the file, at most {@link #DEFAULT_MAX_BYTES} are decoded ahead
+     *
+     * @param file        xz file
+     * @param executor    pool that decodes the blocks, it is not shut down
+     * @param maxInFlight number of blocks decoded but not yet consumed
+     * @throws IOException if the file is not an xz file or can't be read
+     */
+    public ParallelXzInputStream(File file, ExecutorService executor, int maxInFlight) throws IOException {
+        this(file, executor, maxInFlight, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Reads the index of the file
+     *
+     * @param file        xz file
+     * @param executor    pool that decodes the blocks, it is not shut down
+     * @param maxInFlight number of blocks decoded but not yet consumed
+     * @param maxBytes    uncompressed bytes of those blocks and of the one being read, it bounds
+     *                    the memory used, a file with a bigger block is decoded by a single thread
+     * @throws IOException if the file is not an xz file or can't be read
+     */
+    public ParallelXzInputStream(File file, ExecutorService executor, int maxInFlight, long maxBytes)
+            throws IOException {
+        this.file = file;
+        this.executor = executor;
+        this.maxInFlight = Math.max(maxInFlight, 1);
+        this.maxBytes = Math.min(maxBytes, Integer.MAX_VALUE);
+        try (SeekableXZInputStream index = new SeekableXZInputStream(new SeekableFileInputStream(file))) {
+            int count = index.getBlockCount();
+            boolean split = count > 1;
+            long[] sizes = new long[split ? count : 0];
+            for (int i = 0; i < count && split; i++) {
+                sizes[i] = index.getBlockSize(i);
+                split = sizes[i] <= this.maxBytes;
+            }
+            blocks = split ? count : 0;
+            blockSizes = sizes;
+        }
+        if (blocks == 0) {
+            serial = new XZInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER));
+        }
+    }
+
+    /**
+     * @return number of blocks decoded in parallel, 0 if the file is decoded by a single thread
+     */
+    public int getBlockCount() {
+        return blocks;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (serial != null) {
+            return serial.read(b, off, len);
+        }
+        if (len == 0) {
+            return 0;
+        }
+        while (position == current.length) {
+            if (!nextBlock()) {
+                return -1;
+            }
+        }
+        int length = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, length);
+        position += length;
+        return length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Future<byte[]> pending : inFlight) {
+            pending.cancel(true);
+        }
+        inFlight.clear();
+        if (serial != null) {
+            serial.close();
+        }
+        synchronized (decoders) {
+            for (SeekableXZInputStream xz : decoders) {
+                xz.close();
+            }
+        }
+        idle.clear();
+    }
+
+    private boolean nextBlock() throws IOException {
+        //the block that was read is released
+        bytesInFlight -= current.length;
+        current = new byte[0];
+        //a block always fits when nothing else is in flight, none is bigger than the limit
+        while (inFlight.size() < maxInFlight && nextBlock < blocks
+                && bytesInFlight + blockSizes[nextBlock] <= maxBytes) {
+            bytesInFlight += blockSizes[nextBlock];
+            inFlight.add(executor.submit(new BlockJob(nextBlock++)));
+        }
+        Future<byte[]> next = inFlight.poll();
+        if (next == null) {
+            return false;
+        }
+        try {
+            current = next.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Error decoding xz block of " + file.getName(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while decoding xz blocks");
+        }
+        position = 0;
+        return true;
+    }
+
+    private class BlockJob implements Callable<byte[]> {
+        private final int block;
+
+        BlockJob(int block) {
+            this.block = block;
+        }
+
+        public byte[] call() throws IOException {
+            SeekableXZInputStream xz = idle.poll();
+            if (xz == null) {
+                xz = new SeekableXZInputStream(new SeekableFileInputStream(file));
+                decoders.add(xz);
+            }
+            try {
+                xz.seekToBlock(block);
+                //reading the whole block makes the decoder verify its check
+                byte[] data = new byte[(int) blockSizes[block]];
+                int length = 0;
+                while (length < data.length) {
+                    int read = xz.read(data, length, data.length - length);
+                    if (read == -1) {
+                        throw new EOFException("Unexpected end of xz block " + block);
+                    }
+                    length += read;
+                }
+                return data;
+            } finally {
+                if (closed) {
+                    xz.close();
+                } else {
+                    idle.add(xz);
+                }
+            }
+        }
+    }
+}
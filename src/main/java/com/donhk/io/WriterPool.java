@@ -0,0 +1,289 @@
+/* Copyright (c) 2017 Frederick Alvarez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+/*
+   DESCRIPTION
+    Pool of writer threads fed with filled buffers by a single producer
+
+   PRIVATE CLASSES
+    Command, Writer
+
+   NOTES
+    Memory is bounded by the number of buffers, the producer blocks when
+    all of them are queued. Every file is pinned to one writer lane so its
+    chunks are written in order, different files are written in parallel.
+    The lane is chosen by path so an archive holding the same path twice
+    gets its copies written in archive order. A file can be given an
+    action that runs once its writer is done with it, written or not, to
+    give back what the producer took for it
+
+   MODIFIED  (MM/DD/YY)
+    donhk     10/18/26 - Creation
+    donhk     10/18/26 - Lane chosen by path
+    donhk     10/18/26 - Action run once a file is done, written or not
+ */
+package com.donhk.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+
+/**
+ * @author donhk
+ */
+public class WriterPool {
+
+    //the checksum is not verified when this value is passed on close
+    public static final long NO_CRC = -1;
+
+    private final BlockingQueue<byte[]> freeBuffers;
+    private final List<BlockingQueue<Command>> lanes = new ArrayList<>();
+    private final List<Thread> writers = new ArrayList<>();
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * @param writers    number of writer threads
+     * @param buffers    total number of buffers shared by the producer and the writers
+     * @param bufferSize size in bytes of every buffer
+     */
+    public WriterPool(int writers, int buffers, int bufferSize) {
+        freeBuffers = new ArrayBlockingQueue<>(buffers);
+        for (int i = 0; i < buffers; i++) {
+            freeBuffers.add(new byte[bufferSize]);
+        }
+        for (int i = 0; i < writers; i++) {
+            BlockingQueue<Command> lane = new ArrayBlockingQueue<>(buffers + 2);
+            lanes.add(lane);
+            Thread writer = new Thread(new Writer(lane), "writer-" + i);
+            writer.setDaemon(true);
+            this.writers.add(writer);
+            writer.start();
+        }
+    }
+
+    /**
+     * Creates the target file on the lane of its path, the file is created by the writer
+     *
+     * @param destFile file that will be written
+     * @return sink that receives the content of the file
+     * @throws InterruptedException if the producer was interrupted while the lane was full
+     */
+    public Sink open(File destFile) throws InterruptedException {
+        BlockingQueue<Command> lane = lanes.get((destFile.hashCode() & Integer.MAX_VALUE) % lanes.size());
+        Sink sink = new Sink(destFile, lane);
+        lane.put(new Command(sink, null, 0, Command.OPEN, NO_CRC, null, null));
+        return sink;
+    }
+
+    /**
+     * Waits for all the queued writes to finish and stops the writers
+     *
+     * @throws InterruptedException if the wait was interrupted
+     */
+    public void shutdown() throws InterruptedException {
+        for (BlockingQueue<Command> lane : lanes) {
+            lane.put(Command.STOP_ALL);
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+    }
+
+    /**
+     * @return one message per file that could not be written
+     */
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    /**
+     * Content of a single target file, only the producer thread may use it
+     */
+    public class Sink {
+        private final File destFile;
+        private final BlockingQueue<Command> lane;
+        //touched by the writer thread only
+        private FileOutputStream out;
+        private final CRC32 crc = new CRC32();
+        private boolean failed = false;
+
+        private Sink(File destFile, BlockingQueue<Command> lane) {
+            this.destFile = destFile;
+            this.lane = lane;
+        }
+
+        /**
+         * @return an empty buffer, blocks until a writer releases one
+         * @throws InterruptedException if the wait was interrupted
+         */
+        public byte[] buffer() throws InterruptedException {
+            return freeBuffers.take();
+        }
+
+        /**
+         * Gives back a buffer obtained from {@link #buffer()} that will not be written
+         *
+         * @param buffer unused buffer
+         */
+        public void release(byte[] buffer) {
+            freeBuffers.add(buffer);
+        }
+
+        /**
+         * Queues a buffer obtained from {@link #buffer()}, it goes back to the pool once written
+         *
+         * @param buffer filled buffer
+         * @param length number of valid bytes of the buffer
+         * @throws InterruptedException if the lane was full and the wait was interrupted
+         */
+        public void write(byte[] buffer, int length) throws InterruptedException {
+            lane.put(new Command(this, buffer, length, Command.DATA, NO_CRC, null, null));
+        }
+
+        /**
+         * @param expectedCrc CRC32 the content must have or {@link #NO_CRC}
+         * @param onClose     action executed by the writer once the file is closed, may be null
+         * @throws InterruptedException if the lane was full and the wait was interrupted
+         */
+        public void close(long expectedCrc, Runnable onClose) throws InterruptedException {
+            close(expectedCrc, onClose, null);
+        }
+
+        /**
+         * @param expectedCrc CRC32 the content must have or {@link #NO_CRC}
+         * @param onClose     action executed by the writer once the file is closed, may be null
+         * @param onFinish    action executed by the writer after the file, even if it could not
+         *                    be written, it doesn't run if this method throws
+         * @throws InterruptedException if the lane was full and the wait was interrupted
+         */
+        public void close(long expectedCrc, Runnable onClose, Runnable onFinish) throws InterruptedException {
+            lane.put(new Command(this, null, 0, Command.CLOSE, expectedCrc, onClose, onFinish));
+        }
+    }
+
+    private static class Command {
+        private static final int OPEN = 0;
+        private static final int DATA = 1;
+        private static final int CLOSE = 2;
+        private static final int STOP = 3;
+        private static final Command STOP_ALL = new Command(null, null, 0, STOP, NO_CRC, null, null);
+
+        private final Sink sink;
+        private final byte[] buffer;
+        private final int length;
+        private final int type;
+        private final long expectedCrc;
+        private final Runnable onClose;
+        private final Runnable onFinish;
+
+        Command(Sink sink, byte[] buffer, int length, int type, long expectedCrc, Runnable onClose,
+                Runnable onFinish) {
+            this.sink = sink;
+            this.buffer = buffer;
+            this.length = length;
+            this.type = type;
+            this.expectedCrc = expectedCrc;
+            this.onClose = onClose;
+            this.onFinish = onFinish;
+        }
+    }
+
+    private class Writer implements Runnable {
+        private final BlockingQueue<Command> lane;
+
+        Writer(BlockingQueue<Command> lane) {
+            this.lane = lane;
+        }
+
+        public void run() {
+            while (true) {
+                Command command;
+                try {
+                    command = lane.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (command.type == Command.STOP) {
+                    return;
+                }
+                Sink sink = command.sink;
+                try {
+                    if (!sink.failed) {
+                        process(command);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    sink.failed = true;
+                    errors.add(sink.destFile.getPath() + ": " + e);
+                    closeQuietly(sink);
+                } finally {
+                    if (command.buffer != null) {
+                        freeBuffers.add(command.buffer);
+                    }
+                    if (command.onFinish != null) {
+                        command.onFinish.run();
+                    }
+                }
+            }
+        }
+
+        private void process(Command command) throws IOException {
+            Sink sink = command.sink;
+            switch (command.type) {
+                case Command.OPEN:
+                    sink.out = new FileOutputStream(sink.destFile);
+                    break;
+                case Command.DATA:
+                    sink.out.write(command.buffer, 0, command.length);
+                    sink.crc.update(command.buffer, 0, command.length);
+                    break;
+                case Command.CLOSE:
+                    sink.out.close();
+                    sink.out = null;
+                    if (command.expectedCrc != NO_CRC && command.expectedCrc != sink.crc.getValue()) {
+                        throw new IOException("CRC mismatch");
+                    }
+                    if (command.onClose != null) {
+                        command.onClose.run();
+                    }
+                    break;
+            }
+        }
+
+        private void closeQuietly(Sink sink) {
+            if (sink.out != null) {
+                try {
+                    sink.out.close();
+                } catch (IOException e) {
+                    //ignored
+                }
+                sink.out = null;
+            }
+        }
+    }
+}
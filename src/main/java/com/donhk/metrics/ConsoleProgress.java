@@ -0,0 +1,40 @@
+package com.donhk.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prints the entries done and the write speed on a single console line, at most
+ * once per interval so the workers are not slowed down by the console
+ *
+ * @author donhk
+ */
+public class ConsoleProgress implements ProgressListener {
+
+    private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(200);
+
+    private final AtomicLong lastPrint = new AtomicLong(System.nanoTime());
+
+    @Override
+    public void onEntryDone(ExtractionMetrics metrics, String name) {
+        long last = lastPrint.get();
+        long now = System.nanoTime();
+        //only the thread that wins the race prints
+        if (now - last >= INTERVAL && lastPrint.compareAndSet(last, now)) {
+            print(metrics);
+        }
+    }
+
+    @Override
+    public void onFinished(ExtractionMetrics metrics) {
+        print(metrics);
+        System.out.println();
+    }
+
+    private static synchronized void print(ExtractionMetrics metrics) {
+        long total = metrics.getTotalEntries();
+        String done = total < 0 ? String.valueOf(metrics.getEntriesDone()) : metrics.getEntriesDone() + "/" + total;
+        System.out.print(String.format("\r%s files, %.1f MB/s        ", done, metrics.getWriteThroughput()));
+        System.out.flush();
+    }
+}
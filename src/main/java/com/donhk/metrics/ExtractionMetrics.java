@@ -0,0 +1,340 @@
+/* Copyright (c) 2017 Frederick Alvarez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+/*
+   DESCRIPTION
+    Counters of an extraction fed by the threads that do the work
+
+   PRIVATE CLASSES
+    Histogram
+
+   NOTES
+    Every counter is a LongAdder so the workers never contend on the same
+    cache line. Busy time is kept per thread and the latency of every
+    entry goes to a histogram of its size class with power of two buckets
+    in microseconds, percentiles are the upper bound of their bucket.
+    Listeners are called on the worker threads and must return fast
+
+   MODIFIED  (MM/DD/YY)
+    donhk     10/18/26 - Creation
+ */
+package com.donhk.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * @author donhk
+ */
+public class ExtractionMetrics implements ExtractionMetricsMXBean {
+
+    //upper bound in bytes of every size class, the last one has no bound
+    private static final long[] SIZE_CLASSES = {64 * 1024, 1024 * 1024, 16 * 1024 * 1024, 256 * 1024 * 1024, Long.MAX_VALUE};
+    private static final String[] SIZE_CLASS_NAMES = {"<64K", "64K-1M", "1M-16M", "16M-256M", ">=256M"};
+    private static final String OBJECT_NAME = "com.donhk:type=Extraction";
+
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder entriesDone = new LongAdder();
+    private final LongAdder entriesFailed = new LongAdder();
+    private final Map<String, LongAdder> busyNanos = new ConcurrentHashMap<>();
+    private final ThreadLocal<LongAdder> threadBusy = ThreadLocal.withInitial(() -> {
+        LongAdder busy = new LongAdder();
+        busyNanos.put(Thread.currentThread().getName(), busy);
+        return busy;
+    });
+    private final Histogram[] latencies = new Histogram[SIZE_CLASSES.length];
+    private final List<ProgressListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile long totalEntries = -1;
+    private volatile long startNanos = 0;
+    private volatile long endNanos = 0;
+    private ObjectName registeredName = null;
+
+    public ExtractionMetrics() {
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new Histogram();
+        }
+    }
+
+    public void addListener(ProgressListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param totalEntries entries the archive has, -1 if it is not known
+     */
+    public void start(long totalEntries) {
+        this.totalEntries = totalEntries;
+        startNanos = System.nanoTime();
+        endNanos = 0;
+    }
+
+    public void finish() {
+        endNanos = System.nanoTime();
+        for (ProgressListener listener : listeners) {
+            listener.onFinished(this);
+        }
+    }
+
+    /**
+     * Called by the thread that extracted the entry
+     *
+     * @param name    entry name
+     * @param read    bytes read from the archive
+     * @param written bytes written to disk
+     * @param nanos   time spent on the entry by the calling thread
+     */
+    public void entryDone(String name, long read, long written, long nanos) {
+        bytesRead.add(read);
+        bytesWritten.add(written);
+        entriesDone.increment();
+        threadBusy.get().add(nanos);
+        latencies[sizeClass(written)].record(nanos);
+        for (ProgressListener listener : listeners) {
+            listener.onEntryDone(this, name);
+        }
+    }
+
+    /**
+     * @param name  entry name
+     * @param error description of the failure
+     * @param nanos time spent on the entry by the calling thread
+     */
+    public void entryFailed(String name, String error, long nanos) {
+        entriesFailed.increment();
+        threadBusy.get().add(nanos);
+        for (ProgressListener listener : listeners) {
+            listener.onEntryFailed(this, name, error);
+        }
+    }
+
+    /**
+     * Publishes the counters as an MXBean, there can be only one registered at a time
+     *
+     * @throws JMException if the bean could not be registered
+     */
+    public void registerMBean() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        server.registerMBean(this, name);
+        registeredName = name;
+    }
+
+    public void unregisterMBean() throws JMException {
+        if (registeredName != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+            registeredName = null;
+        }
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public long getEntriesDone() {
+        return entriesDone.sum();
+    }
+
+    @Override
+    public long getEntriesFailed() {
+        return entriesFailed.sum();
+    }
+
+    @Override
+    public long getTotalEntries() {
+        return totalEntries;
+    }
+
+    @Override
+    public long getElapsedMillis() {
+        if (startNanos == 0) {
+            return 0;
+        }
+        long end = endNanos == 0 ? System.nanoTime() : endNanos;
+        return TimeUnit.NANOSECONDS.toMillis(end - startNanos);
+    }
+
+    @Override
+    public double getWriteThroughput() {
+        long millis = getElapsedMillis();
+        return millis == 0 ? 0 : getBytesWritten() / (1024.0 * 1024.0) / (millis / 1000.0);
+    }
+
+    @Override
+    public double getReadThroughput() {
+        long millis = getElapsedMillis();
+        return millis == 0 ? 0 : getBytesRead() / (1024.0 * 1024.0) / (millis / 1000.0);
+    }
+
+    /**
+     * @return busy time in milliseconds of every thread that reported an entry
+     */
+    @Override
+    public Map<String, Long> getBusyMillis() {
+        Map<String, Long> busy = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : busyNanos.entrySet()) {
+            busy.put(entry.getKey(), TimeUnit.NANOSECONDS.toMillis(entry.getValue().sum()));
+        }
+        return busy;
+    }
+
+    /**
+     * @return one line per size class with its entries and latency percentiles
+     */
+    public List<String> getLatencyReport() {
+        List<String> report = new ArrayList<>();
+        for (int i = 0; i < latencies.length; i++) {
+            Histogram histogram = latencies[i];
+            if (histogram.count() == 0) {
+                continue;
+            }
+            report.add(String.format("%-9s %d entries, p50 %d us, p99 %d us, max %d us", SIZE_CLASS_NAMES[i],
+                    histogram.count(), histogram.percentile(0.5), histogram.percentile(0.99), histogram.max()));
+        }
+        return report;
+    }
+
+    /**
+     * @return all the counters as a single JSON object
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append('{');
+        json.append("\"entries\":").append(getEntriesDone());
+        json.append(",\"failed\":").append(getEntriesFailed());
+        json.append(",\"totalEntries\":").append(getTotalEntries());
+        json.append(",\"bytesRead\":").append(getBytesRead());
+        json.append(",\"bytesWritten\":").append(getBytesWritten());
+        json.append(",\"elapsedMillis\":").append(getElapsedMillis());
+        json.append(",\"readMBps\":").append(String.format(Locale.ROOT, "%.2f", getReadThroughput()));
+        json.append(",\"writeMBps\":").append(String.format(Locale.ROOT, "%.2f", getWriteThroughput()));
+        json.append(",\"busyMillis\":{");
+        String separator = "";
+        for (Map.Entry<String, Long> busy : getBusyMillis().entrySet()) {
+            json.append(separator).append(quote(busy.getKey())).append(':').append(busy.getValue());
+            separator = ",";
+        }
+        json.append("},\"latencyMicros\":{");
+        separator = "";
+        for (int i = 0; i < latencies.length; i++) {
+            Histogram histogram = latencies[i];
+            json.append(separator).append(quote(SIZE_CLASS_NAMES[i])).append(":{");
+            json.append("\"count\":").append(histogram.count());
+            json.append(",\"p50\":").append(histogram.percentile(0.5));
+            json.append(",\"p99\":").append(histogram.percentile(0.99));
+            json.append(",\"max\":").append(histogram.max());
+            json.append('}');
+            separator = ",";
+        }
+        json.append("}}");
+        return json.toString();
+    }
+
+    private static int sizeClass(long size) {
+        int i = 0;
+        while (size >= SIZE_CLASSES[i]) {
+            i++;
+        }
+        return i;
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    private static class Histogram {
+        //bucket i holds latencies below 2^i microseconds
+        private final LongAdder[] buckets = new LongAdder[40];
+        private final LongAdder count = new LongAdder();
+        private volatile long max = 0;
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos) {
+            long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+            int bucket = Math.min(64 - Long.numberOfLeadingZeros(micros), buckets.length - 1);
+            buckets[bucket].increment();
+            count.increment();
+            //a lost update only makes the max a bit low, not worth a lock
+            if (micros > max) {
+                max = micros;
+            }
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        long max() {
+            return max;
+        }
+
+        long percentile(double fraction) {
+            long total = count.sum();
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(total * fraction);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i].sum();
+                if (seen >= rank) {
+                    return Math.min(1L << i, max);
+                }
+            }
+            return max;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.donhk.metrics;
+
+import java.util.Map;
+
+/**
+ * Counters of the running extraction published through JMX
+ *
+ * @author donhk
+ */
+public interface ExtractionMetricsMXBean {
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    long getEntriesDone();
+
+    long getEntriesFailed();
+
+    /**
+     * @return entries the archive has, -1 if it is not known
+     */
+    long getTotalEntries();
+
+    long getElapsedMillis();
+
+    /**
+     * @return MB per second read from the archive since the start
+     */
+    double getReadThroughput();
+
+    /**
+     * @return MB per second written to disk since the start
+     */
+    double getWriteThroughput();
+
+    Map<String, Long> getBusyMillis();
+}
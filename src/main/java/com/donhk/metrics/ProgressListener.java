@@ -0,0 +1,30 @@
+package com.donhk.metrics;
+
+/**
+ * Receives the progress of an extraction, the calls come from the worker threads
+ * so implementations must be thread safe and return fast
+ *
+ * @author donhk
+ */
+public interface ProgressListener {
+
+    /**
+     * @param metrics counters of the extraction
+     * @param name    entry that has just been written
+     */
+    void onEntryDone(ExtractionMetrics metrics, String name);
+
+    /**
+     * @param metrics counters of the extraction
+     * @param name    entry that could not be extracted
+     * @param error   description of the failure
+     */
+    default void onEntryFailed(ExtractionMetrics metrics, String name, String error) {
+    }
+
+    /**
+     * @param metrics final counters of the extraction
+     */
+    default void onFinished(ExtractionMetrics metrics) {
+    }
+}
@@ -0,0 +1,379 @@
+/* Copyright (c) 2017 Frederick Alvarez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+/*
+   DESCRIPTION
+    Class in charge of decompress tar, tar.gz, tar.bz2 and tar.xz files
+
+   PRIVATE CLASSES
+    Link, Metadata
+
+   NOTES
+    Three stages connected by bounded queues: a gunzip thread fills the
+    blocks of a BlockPipe, or a pool decodes the blocks of a bzip2 or xz
+    file ahead of the reads, this thread parses the tar headers and copies
+    the content of the files into the buffers of a WriterPool, and the
+    writers put them on disk. A gzip limited stream keeps all the disks
+    busy and a slow disk only stalls its own lane. Links are created once
+    all the files exist and directory metadata is applied at the end,
+    deepest first, so writing their content doesn't change it. With a
+    work budget this thread takes a slot for every entry and the writer
+    gives it back once the file is on disk, and the blocks are decoded by
+    the pool of the budget shared with the other archives
+
+   MODIFIED  (MM/DD/YY)
+    donhk     10/18/26 - Creation
+    donhk     10/18/26 - Extraction metrics
+    donhk     10/18/26 - Shared metadata helper
+    donhk     10/18/26 - Include/exclude filters
+    donhk     10/18/26 - Shared work budget for batch extraction
+    donhk     10/18/26 - tar.bz2 decoded block parallel
+    donhk     10/18/26 - tar.xz decoded block parallel
+    donhk     10/18/26 - Budget slots held until the files are written
+ */
+package com.donhk.tar;
+
+import com.donhk.engine.EntryFilter;
+import com.donhk.engine.Extractor;
+import com.donhk.engine.WorkBudget;
+import com.donhk.io.BlockPipe;
+import com.donhk.io.FileMetadata;
+import com.donhk.io.ParallelBzip2InputStream;
+import com.donhk.io.ParallelXzInputStream;
+import com.donhk.io.WriterPool;
+import com.donhk.metrics.ExtractionMetrics;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * @author donhk
+ */
+public class Tar implements Extractor {
+
+    private static final int GZIP_MAGIC = 0x1F8B;
+    private static final int BZIP2_MAGIC = 0x425A68; //BZh
+    private static final byte[] XZ_MAGIC = {(byte) 0xFD, '7', 'z', 'X', 'Z', 0};
+    private static final int BUFFER = 1024 * 128;
+    //buffers in flight per writer thread
+    private static final int BUFFERS_PER_WRITER = 4;
+    //decompressed blocks waiting for the tar parser
+    private static final int PIPE_BLOCKS = 8;
+
+    private final File tarFile;
+    private final File targetPath;
+    private final int threads;
+    private boolean gzip = false;
+    private boolean bzip2 = false;
+    private boolean xz = false;
+    private volatile boolean done = false;
+    private long totalFiles = 0;
+    private final List<Link> links = new ArrayList<>();
+    private final List<Metadata> directories = new ArrayList<>();
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+    private ExtractionMetrics metrics = new ExtractionMetrics();
+    private EntryFilter filter = new EntryFilter();
+    private WorkBudget budget = null;
+    private boolean IS_WINDOWS = System.getProperty("os.name").toLowerCase().contains("windows");
+
+    /**
+     * @param tarFile    tar file, it can be gzip compressed
+     * @param targetPath directory where the files will be written
+     * @param threads    number of writer threads
+     */
+    public Tar(String tarFile, String targetPath, int threads) {
+        this.tarFile = new File(tarFile);
+        this.targetPath = new File(targetPath);
+        this.threads = threads;
+    }
+
+    /**
+     * Looks for the gzip, bzip2 and xz signatures, anything else is read as a plain tar file
+     */
+    @Override
+    public boolean prepare() throws IOException {
+        if (!tarFile.canRead()) {
+            return false;
+        }
+        if (!targetPath.isDirectory() && !targetPath.mkdirs()) {
+            return false;
+        }
+        byte[] magic = new byte[XZ_MAGIC.length];
+        int length = 0;
+        try (InputStream in = new FileInputStream(tarFile)) {
+            int read;
+            while (length < magic.length && (read = in.read(magic, length, magic.length - length)) != -1) {
+                length += read;
+            }
+        }
+        if (length < 3) {
+            return false;
+        }
+        gzip = ((magic[0] & 0xFF) << 8 | (magic[1] & 0xFF)) == GZIP_MAGIC;
+        bzip2 = ((magic[0] & 0xFF) << 16 | (magic[1] & 0xFF) << 8 | (magic[2] & 0xFF)) == BZIP2_MAGIC;
+        xz = Arrays.equals(magic, XZ_MAGIC);
+        System.out.println("Reading tar file " + tarFile.getAbsolutePath());
+        return true;
+    }
+
+    @Override
+    public void setMetrics(ExtractionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void setBudget(WorkBudget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Only the entries accepted by the filter are written, the rest are skipped as they are read
+     *
+     * @param filter include and exclude rules, every entry is extracted by default
+     */
+    public void setFilter(EntryFilter filter) {
+        this.filter = filter;
+    }
+
+    @Override
+    public boolean extract() throws IOException, InterruptedException {
+        WriterPool pool = new WriterPool(threads, threads * BUFFERS_PER_WRITER, BUFFER);
+        Thread gunzip = null;
+        ExecutorService decoders = null;
+        InputStream in = null;
+        try {
+            if (bzip2 || xz) {
+                decoders = budget == null ? Executors.newFixedThreadPool(threads) : budget.getDecoders();
+            }
+            if (bzip2) {
+                in = new ParallelBzip2InputStream(new FileInputStream(tarFile), decoders, threads * 2);
+            } else if (xz) {
+                in = new ParallelXzInputStream(tarFile, decoders, threads * 2);
+            } else if (gzip) {
+                BlockPipe pipe = new BlockPipe(PIPE_BLOCKS, BUFFER);
+                gunzip = new Thread(() -> {
+                    try (InputStream gz = new GZIPInputStream(new FileInputStream(tarFile), BUFFER)) {
+                        pipe.transferFrom(gz);
+                    } catch (IOException e) {
+                        pipe.abort(e);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }, "gunzip");
+                gunzip.setDaemon(true);
+                in = pipe.getInputStream();
+                gunzip.start();
+            } else {
+                in = new BufferedInputStream(new FileInputStream(tarFile), BUFFER);
+            }
+            TarArchiveInputStream tar = new TarArchiveInputStream(in);
+            TarArchiveEntry entry;
+            while ((entry = tar.getNextTarEntry()) != null) {
+                readEntry(tar, entry, pool);
+            }
+        } finally {
+            //stops the gunzip thread if the parser failed
+            if (in != null) {
+                in.close();
+            }
+            pool.shutdown();
+            errors.addAll(pool.getErrors());
+            if (gunzip != null) {
+                gunzip.join();
+            }
+            //the streams cancelled their blocks, a shared pool stays up for the other archives
+            if (decoders != null && budget == null) {
+                decoders.shutdownNow();
+            }
+        }
+        createLinks();
+        restoreDirectories();
+        done = true;
+        return true;
+    }
+
+    private void readEntry(TarArchiveInputStream tar, TarArchiveEntry entry, WriterPool pool)
+            throws IOException, InterruptedException {
+        String name = entry.getName();
+        if (!filter.accepts(name)) {
+            //the parser skips the content
+            return;
+        }
+        File destFile = new File(targetPath, name);
+        if (entry.isDirectory()) {
+            destFile.mkdirs();
+            directories.add(new Metadata(destFile, entry.getMode(), entry.getModTime().getTime()));
+            return;
+        }
+        //recreate original structure
+        destFile.getParentFile().mkdirs();
+        if (entry.isSymbolicLink() || entry.isLink()) {
+            links.add(new Link(destFile, entry.getLinkName(), entry.isSymbolicLink()));
+            totalFiles++;
+            return;
+        }
+        if (!entry.isFile()) {
+            errors.add(name + ": devices and fifos are not supported");
+            return;
+        }
+        if (Files.isSymbolicLink(destFile.toPath())) {
+            //the write would follow it
+            Files.delete(destFile.toPath());
+        }
+        long start = System.nanoTime();
+        long size = entry.getSize();
+        long granted = budget == null ? 0 : budget.acquire(size);
+        boolean queued = false;
+        try {
+            WriterPool.Sink sink = pool.open(destFile);
+            long remaining = size;
+            while (remaining > 0) {
+                byte[] buffer = sink.buffer();
+                int read = tar.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    sink.release(buffer);
+                    throw new EOFException("Unexpected end of tar file " + name);
+                }
+                sink.write(buffer, read);
+                remaining -= read;
+            }
+            Metadata metadata = new Metadata(destFile, entry.getMode(), entry.getModTime().getTime());
+            //the latency goes from the header to the file being closed by its writer
+            sink.close(WriterPool.NO_CRC, () -> {
+                metadata.apply();
+                metrics.entryDone(name, size, size, System.nanoTime() - start);
+            }, () -> release(granted));
+            queued = true;
+        } finally {
+            if (!queued) {
+                release(granted);
+            }
+        }
+        totalFiles++;
+    }
+
+    private void release(long granted) {
+        if (budget != null) {
+            budget.release(granted);
+        }
+    }
+
+    /**
+     * Hard links need their target on disk, symlinks are created last so none of the
+     * writes goes through them
+     */
+    private void createLinks() {
+        for (boolean symbolic : new boolean[]{false, true}) {
+            for (Link link : links) {
+                if (link.symbolic != symbolic || (symbolic && IS_WINDOWS)) {
+                    continue;
+                }
+                long start = System.nanoTime();
+                try {
+                    Files.deleteIfExists(link.destFile.toPath());
+                    if (symbolic) {
+                        Files.createSymbolicLink(link.destFile.toPath(), Paths.get(link.target));
+                    } else {
+                        Files.createLink(link.destFile.toPath(), new File(targetPath, link.target).toPath());
+                    }
+                    metrics.entryDone(link.destFile.getName(), 0, 0, System.nanoTime() - start);
+                } catch (IOException e) {
+                    errors.add(link.destFile.getPath() + ": " + e);
+                }
+            }
+        }
+    }
+
+    private void restoreDirectories() {
+        //a parent path is always shorter than the paths of its children
+        directories.sort(Comparator.comparingInt((Metadata metadata) -> metadata.file.getPath().length()).reversed());
+        for (Metadata directory : directories) {
+            try {
+                directory.apply();
+            } catch (UncheckedIOException e) {
+                errors.add(directory.file.getPath() + ": " + e.getCause());
+            }
+        }
+    }
+
+    @Override
+    public long getTotalFiles() {
+        return done ? totalFiles : -1;
+    }
+
+    @Override
+    public long getFilesRemaining() {
+        return done ? 0 : -1;
+    }
+
+    @Override
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    private static class Link {
+        private final File destFile;
+        private final String target;
+        private final boolean symbolic;
+
+        Link(File destFile, String target, boolean symbolic) {
+            this.destFile = destFile;
+            this.target = target;
+            this.symbolic = symbolic;
+        }
+    }
+
+    private static class Metadata {
+        private final File file;
+        private final int mode;
+        private final long time;
+
+        Metadata(File file, int mode, long time) {
+            this.file = file;
+            this.mode = mode;
+            this.time = time;
+        }
+
+        /**
+         * Runs on the writer threads for files, the writer pool reports the error
+         */
+        void apply() {
+            try {
+                FileMetadata.apply(file.toPath(), mode, time);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/* Copyright (c) 2017 Frederick Alvarez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+/*
+   DESCRIPTION
+    Class in charge of compress a file or directory tree into a tar.gz file
+
+   PRIVATE CLASSES
+    N/A
+
+   NOTES
+    The tree is walked once and every entry is written to the tar stream
+    as it is visited, nothing is buffered but the blocks of the gzip
+    layer. Those are deflated by a pool of threads the pigz way, using
+    the last 32 KB of the previous block as dictionary, and written in
+    order as a single gzip member, so the memory used is bounded by the
+    blocks in flight whatever the size of the tree. The file is written
+    under a temporary name and renamed once it is complete
+
+   MODIFIED  (MM/DD/YY)
+    donhk     10/18/26 - Creation
+ */
+package com.donhk.tar;
+
+import com.donhk.io.ParallelDeflater;
+import com.donhk.io.ParallelGzipOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * @author donhk
+ */
+public class TarCompressor {
+
+    private static final int BLOCK_SIZE = 1024 * 1024;
+    private static final int BUFFER = 1024 * 128;
+    private static final int DIR_FLAG = 040000;
+    private static final int FILE_FLAG = 0100000;
+    private static final int LINK_FLAG = 0120000;
+
+    private final File tarFile;
+    private final File sourcePath;
+    private final int threads;
+    private final int level;
+    private long totalFiles = 0;
+    private long size = 0;
+    private boolean IS_WINDOWS = System.getProperty("os.name").toLowerCase().contains("windows");
+
+    /**
+     * @param tarFile    tar.gz file that will be created
+     * @param sourcePath file or directory that will be compressed
+     * @param threads    number of threads used to deflate the blocks
+     * @param level      deflate level from 0 (store) to 9, -1 for the default level
+     */
+    public TarCompressor(String tarFile, String sourcePath, int threads, int level) {
+        this.tarFile = new File(tarFile);
+        this.sourcePath = new File(sourcePath);
+        this.threads = threads;
+        this.level = level;
+    }
+
+    public boolean prepare() {
+        return sourcePath.exists();
+    }
+
+    /**
+     * Walks the source tree writing its entries, names are relative to the parent of the
+     * source the same way tar does
+     *
+     * @return true if the tar.gz file was created successfully
+     * @throws IOException          if there was an IO error reading the sources or writing the file
+     * @throws InterruptedException if the operation was interrupted
+     */
+    public boolean compress() throws IOException, InterruptedException {
+        final Path source = sourcePath.toPath().toAbsolutePath().normalize();
+        final Path base = source.getParent() == null ? source : source.getParent();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        File tmp = new File(tarFile.getPath() + ".tmp");
+        System.out.println("Reading source tree " + source);
+        ParallelDeflater deflater = new ParallelDeflater(executor, level, BLOCK_SIZE, threads * 2);
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(
+                new ParallelGzipOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), BUFFER), deflater))) {
+            tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+            byte[] buffer = new byte[BUFFER];
+            Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    TarArchiveEntry entry = new TarArchiveEntry(entryName(base, dir) + "/");
+                    entry.setModTime(attrs.lastModifiedTime().toMillis());
+                    entry.setMode(DIR_FLAG | unixPermissions(dir, TarArchiveEntry.DEFAULT_DIR_MODE & 0777));
+                    tar.putArchiveEntry(entry);
+                    tar.closeArchiveEntry();
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    String name = entryName(base, file);
+                    TarArchiveEntry entry;
+                    if (attrs.isSymbolicLink()) {
+                        entry = new TarArchiveEntry(name, TarConstants.LF_SYMLINK);
+                        entry.setLinkName(Files.readSymbolicLink(file).toString());
+                        entry.setMode(LINK_FLAG | 0777);
+                    } else if (attrs.isRegularFile()) {
+                        entry = new TarArchiveEntry(name);
+                        entry.setMode(FILE_FLAG | unixPermissions(file, TarArchiveEntry.DEFAULT_FILE_MODE & 0777));
+                        entry.setSize(attrs.size());
+                    } else {
+                        //sockets, pipes and devices can't be stored
+                        return FileVisitResult.CONTINUE;
+                    }
+                    entry.setModTime(attrs.lastModifiedTime().toMillis());
+                    tar.putArchiveEntry(entry);
+                    if (attrs.isRegularFile()) {
+                        copy(file, attrs.size(), tar, buffer);
+                    }
+                    tar.closeArchiveEntry();
+                    totalFiles++;
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            tmp.delete();
+            //the deflater wraps the interruptions of the walking thread
+            if (e instanceof InterruptedIOException) {
+                throw new InterruptedException(e.getMessage());
+            }
+            throw e;
+        } finally {
+            executor.shutdownNow();
+        }
+        Files.move(tmp.toPath(), tarFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return true;
+    }
+
+    /**
+     * @return regular files and symlinks written
+     */
+    public long getTotalFiles() {
+        return totalFiles;
+    }
+
+    /**
+     * @return bytes of the regular files written
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Copies exactly the size the entry was given, the tar stream fails if the file changed size
+     */
+    private void copy(Path file, long length, OutputStream out, byte[] buffer) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            long remaining = length;
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read == -1) {
+                    throw new EOFException(file + " was truncated while it was read");
+                }
+                out.write(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+        size += length;
+    }
+
+    private static String entryName(Path base, Path path) {
+        String name = base.relativize(path).toString();
+        if (File.separatorChar != '/') {
+            name = name.replace(File.separatorChar, '/');
+        }
+        return name;
+    }
+
+    /**
+     * Reads the unix permissions of a file without following symlinks
+     *
+     * @param path         file to inspect
+     * @param defaultPerms permissions used when the file system is not posix
+     * @return the permission bits of the file e.g. 0755
+     * @throws IOException if there was an error reading the attributes
+     */
+    private int unixPermissions(Path path, int defaultPerms) throws IOException {
+        if (IS_WINDOWS) {
+            return defaultPerms;
+        }
+        int mode = 0;
+        //PosixFilePermission is declared from OWNER_READ (0400) down to OTHERS_EXECUTE (0001)
+        for (PosixFilePermission perm : Files.getPosixFilePermissions(path, LinkOption.NOFOLLOW_LINKS)) {
+            mode |= 1 << (8 - perm.ordinal());
+        }
+        return mode;
+    }
+}
@@ -0,0 +1,70 @@
+/* Copyright (c) 2017 Frederick Alvarez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+/*
+   DESCRIPTION
+    Class in charge of decompress xz and lzma files that are not tar files
+
+   PRIVATE CLASSES
+    N/A
+
+   NOTES
+    Like bzip2 an xz file holds a single file, it is written to the target
+    directory with the name of the xz file without its extension. The
+    blocks of an xz file are decoded by a pool of threads while the engine
+    thread writes them in order, a file with a single block is decoded by
+    the engine thread. The legacy lzma format has no blocks nor index and
+    is always decoded by the engine thread, no pool is created for it
+
+   MODIFIED  (MM/DD/YY)
+    donhk     10/18/26 - Creation
+    donhk     10/18/26 - Extraction moved to SingleFileExtractor
+ */
+package com.donhk.xz;
+
+import com.donhk.engine.SingleFileExtractor;
+import com.donhk.io.ParallelXzInputStream;
+import org.tukaani.xz.LZMAInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+
+/**
+ * @author donhk
+ */
+public class Xz extends SingleFileExtractor {
+
+    private static final int BUFFER = 1024 * 128;
+
+    /**
+     * @param xzFile     xz or lzma file
+     * @param targetPath directory where the file will be written
+     * @param threads    number of threads decoding blocks
+     * @param lzma       true if the file uses the legacy lzma format, it has no signature
+     */
+    public Xz(String xzFile, String targetPath, int threads, boolean lzma) {
+        super(xzFile, targetPath, lzma ? 0 : threads, lzma ? "lzma" : "xz", new String[]{lzma ? ".lzma" : ".xz"},
+                lzma ? (file, executor) -> new LZMAInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER))
+                        : (file, executor) -> new ParallelXzInputStream(file, executor, threads * 2));
+    }
+}
@@ -0,0 +1,127 @@
+/* Copyright (c) 2017 Frederick Alvarez
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+/*
+   DESCRIPTION
+    Class in charge of compress a single file to xz
+
+   PRIVATE CLASSES
+    N/A
+
+   NOTES
+    The file is cut in blocks compressed by a pool of threads, the blocks
+    are written in order to a temporary file that replaces the xz file
+    once it is complete. Smaller blocks give more parallelism and a bit
+    worse ratio, the default is 3 times the dictionary of preset 6 like
+    xz -T does
+
+   MODIFIED  (MM/DD/YY)
+    donhk     10/18/26 - Creation
+ */
+package com.donhk.xz;
+
+import com.donhk.io.ParallelXzCompressor;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * @author donhk
+ */
+public class XzCompressor {
+
+    private static final int BUFFER = 1024 * 128;
+    private static final int DEFAULT_PRESET = 6;
+
+    private final File xzFile;
+    private final File sourceFile;
+    private final int threads;
+    private final int preset;
+    private int blockSize = 24 * 1024 * 1024;
+    private int maxDict = 64 * 1024 * 1024;
+    private long size = 0;
+    private long compressedSize = 0;
+
+    /**
+     * @param xzFile     file that will be created
+     * @param sourceFile file that will be compressed
+     * @param threads    number of threads compressing blocks
+     * @param level      xz preset from 0 to 9, -1 for the default one
+     */
+    public XzCompressor(String xzFile, String sourceFile, int threads, int level) {
+        this.xzFile = new File(xzFile);
+        this.sourceFile = new File(sourceFile);
+        this.threads = threads;
+        this.preset = level < 0 ? DEFAULT_PRESET : level;
+    }
+
+    /**
+     * @param blockSize bytes of the file compressed by each thread at once
+     */
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * @param maxDict biggest dictionary a thread can use, it bounds its memory
+     */
+    public void setMaxDict(int maxDict) {
+        this.maxDict = maxDict;
+    }
+
+    public boolean prepare() {
+        return sourceFile.isFile() && sourceFile.canRead();
+    }
+
+    public boolean compress() throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        File tmp = new File(xzFile.getPath() + ".tmp");
+        try (InputStream in = new BufferedInputStream(new FileInputStream(sourceFile), BUFFER);
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp), BUFFER)) {
+            ParallelXzCompressor compressor = new ParallelXzCompressor(executor, preset, blockSize, maxDict, threads * 2);
+            System.out.println("Blocks of " + blockSize / 1024 + " KB, " + compressor.getEncoderMemoryUsage() / 1024
+                    + " MB of memory per thread");
+            size = compressor.compress(in, out);
+        } catch (IOException | InterruptedException e) {
+            tmp.delete();
+            throw e;
+        } finally {
+            executor.shutdownNow();
+        }
+        compressedSize = tmp.length();
+        Files.move(tmp.toPath(), xzFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        xzFile.setLastModified(sourceFile.lastModified());
+        return true;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getCompressedSize() {
+        return compressedSize;
+    }
+}